@@ -135,6 +135,9 @@ module.exports = function(context){
             androidHelper.applyPluginToAppGradle(PLATFORM.ANDROID.performanceGradlePlugin.pluginDef);
         }
 
+        // Generate registry of static message receivers
+        androidHelper.generateStaticReceiverRegistry(pluginVariables['ANDROID_STATIC_RECEIVER_PERSISTED_FALLBACK'] !== 'false');
+
         // Add tools namespace to manifest
         if(fs.existsSync(path.resolve(PLATFORM.ANDROID.manifestXml))){
             const manifestContents = fs.readFileSync(path.resolve(PLATFORM.ANDROID.manifestXml)).toString();
@@ -12,6 +12,39 @@ const APP_GRADLE_FILEPATH = ANDROID_PROJECT_ROOT + '/app/build.gradle';
 const gradleDependencyTemplate = "classpath '{artifactDef}'";
 const applyPluginTemplate = "apply plugin: '{pluginDef}'";
 
+const JAVA_SOURCE_ROOT = ANDROID_PROJECT_ROOT + '/app/src/main/java';
+const STATIC_RECEIVER_REGISTRY_FILEPATH = JAVA_SOURCE_ROOT + '/org/apache/cordova/firebase/FirebasePluginStaticReceiverRegistry.java';
+
+const staticReceiverRegistryTemplate = `package org.apache.cordova.firebase;
+
+/**
+ * Static message receivers ({@link FirebasePluginMessageReceiverStatic}) known at build time.
+ * Generated by the after_prepare hook - do not edit.
+ */
+final class FirebasePluginStaticReceiverRegistry {
+
+    static final boolean PERSISTED_FALLBACK = {persistedFallback};
+
+    static final Class<?>[] RECEIVER_CLASSES = {
+{receiverClasses}    };
+
+    private FirebasePluginStaticReceiverRegistry() {
+    }
+
+    static void createReceivers() {
+{createReceivers}    }
+}
+`;
+
+const staticReceiverCreateTemplate = `        if (!FirebasePluginMessageReceiverManager.isRegistered({className}.class)) {
+            try {
+                new {className}();
+            } catch (Exception e) {
+                FirebasePlugin.handleExceptionWithoutContext(e);
+            }
+        }
+`;
+
 const Android = {};
 
 Android.addDependencyToRootGradle = function(artifactDef){
@@ -34,4 +67,83 @@ Android.applyPluginToAppGradle = function(pluginDef){
     utilities.log("Applied plugin to app gradle: " + pluginDef);
 };
 
+/**
+ * Generates FirebasePluginStaticReceiverRegistry.java containing direct constructor calls for all classes in the Android app sources
+ * which implement FirebasePluginMessageReceiverStatic and have a public no-arg constructor, so static receivers can be created without reflection on a cold start.
+ * The file is only written if its contents change.
+ * @param {boolean} persistedFallback - whether receivers registered at runtime should still be persisted
+ */
+Android.generateStaticReceiverRegistry = function(persistedFallback){
+    const sourceRoot = path.resolve(JAVA_SOURCE_ROOT);
+    if(!fs.existsSync(sourceRoot)) return;
+
+    const receiverClasses = [];
+    findJavaFiles(sourceRoot).forEach(function(filepath){
+        const contents = stripJavaComments(fs.readFileSync(filepath).toString());
+        if(!contents.match(/\bFirebasePluginMessageReceiverStatic\b/)) return;
+        const packageMatch = contents.match(/^\s*package\s+([\w.]+)\s*;/m);
+        const classMatch = contents.match(/public\s+(?:final\s+)?class\s+(\w+)[^{]*\bimplements\b[^{]*\bFirebasePluginMessageReceiverStatic\b/);
+        if(!packageMatch || !classMatch) return;
+        const className = classMatch[1];
+        // Only the top-level class of a file (named after it) can be referenced from the registry
+        if(path.basename(filepath, '.java') !== className) return;
+        if(!hasPublicNoArgConstructor(contents, className)){
+            utilities.log("Static receiver " + className + " has no public no-arg constructor; it is created via the persisted fallback instead");
+            return;
+        }
+        receiverClasses.push(packageMatch[1] + '.' + className);
+    });
+    receiverClasses.sort();
+
+    const registry = staticReceiverRegistryTemplate
+        .replace("{persistedFallback}", persistedFallback ? "true" : "false")
+        .replace("{receiverClasses}", receiverClasses.map(function(className){
+            return "            " + className + ".class,\n";
+        }).join(''))
+        .replace("{createReceivers}", receiverClasses.map(function(className){
+            return staticReceiverCreateTemplate.replace(/\{className\}/g, className);
+        }).join(''));
+
+    const registryFilepath = path.resolve(STATIC_RECEIVER_REGISTRY_FILEPATH);
+    if(fs.existsSync(registryFilepath) && fs.readFileSync(registryFilepath).toString() === registry) return;
+    fs.writeFileSync(registryFilepath, registry);
+    utilities.log("Generated static receiver registry with " + receiverClasses.length + " receiver(s)");
+};
+
+/**
+ * Whether the class can be instantiated by the generated registry with `new ClassName()`:
+ * it either declares a public constructor without parameters or declares no constructors at all.
+ * @param {string} contents - Java source without comments
+ * @param {string} className
+ */
+const hasPublicNoArgConstructor = function(contents, className){
+    const constructorPattern = new RegExp("(^|[;{}\\s])((?:(?:public|protected|private)\\s+)?)" + className + "\\s*\\(([^)]*)\\)\\s*(?:throws\\s[^{;]*)?\\{", "g");
+    let declaresConstructor = false, match;
+    while((match = constructorPattern.exec(contents)) !== null){
+        // Skip instantiations such as "new ClassName() {"
+        const preceding = contents.substring(0, match.index + match[1].length).trimEnd();
+        if(preceding.match(/\bnew$/)) continue;
+        declaresConstructor = true;
+        if(match[2].trim() === 'public' && match[3].trim() === '') return true;
+    }
+    return !declaresConstructor;
+};
+
+const stripJavaComments = function(contents){
+    return contents.replace(/\/\*[\s\S]*?\*\//g, '').replace(/\/\/[^\n]*/g, '');
+};
+
+const findJavaFiles = function(dir){
+    let files = [];
+    fs.readdirSync(dir).forEach(function(name){
+        const filepath = path.join(dir, name);
+        if(fs.statSync(filepath).isDirectory()){
+            files = files.concat(findJavaFiles(filepath));
+        }else if(name.match(/\.java$/) && filepath !== path.resolve(STATIC_RECEIVER_REGISTRY_FILEPATH)){
+            files.push(filepath);
+        }
+    });
+    return files;
+};
+
 module.exports = Android;
@@ -113,6 +113,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Random;
 import java.util.Set;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Date;
 import java.util.EnumMap;
@@ -175,7 +176,9 @@ public class FirebasePlugin extends CordovaPlugin {
 
     private static boolean inBackground = true;
     private static boolean immediateMessagePayloadDelivery = false;
-    private static ArrayList<Bundle> notificationStack = null;
+    private static boolean batchMessageDelivery = false;
+    private static final int DEFAULT_BATCH_MESSAGE_MAX_BYTES = 256 * 1024;
+    private static int batchMessageMaxBytes = DEFAULT_BATCH_MESSAGE_MAX_BYTES;
     private static CallbackContext notificationCallbackContext;
     private static CallbackContext tokenRefreshCallbackContext;
     private static CallbackContext activityResultCallbackContext;
@@ -198,13 +201,16 @@ public class FirebasePlugin extends CordovaPlugin {
         instance = this;
         cordovaActivity = this.cordova.getActivity();
         applicationContext = cordovaActivity.getApplicationContext();
+        FirebasePluginLog.initialize(applicationContext);
+        // Registered before the activity is started, so its start is counted
+        FirebasePluginAppLifecycle.register(applicationContext);
         final Bundle extras = cordovaActivity.getIntent().getExtras();
         FirebasePlugin.cordovaInterface = this.cordova;
         firebaseCrashlytics = FirebaseCrashlytics.getInstance();
         this.cordova.getThreadPool().execute(new Runnable() {
             public void run() {
                 try {
-                    Log.d(TAG, "Starting Firebase plugin");
+                    FirebasePluginLog.d("Starting Firebase plugin");
 
                     if (getMetaDataFromManifest(CRASHLYTICS_COLLECTION_ENABLED)) {
                         setPreference(CRASHLYTICS_COLLECTION_ENABLED, true);
@@ -263,16 +269,16 @@ public class FirebasePlugin extends CordovaPlugin {
                             .create();
 
                     if (extras != null && extras.size() > 1) {
-                        if (FirebasePlugin.notificationStack == null) {
-                            FirebasePlugin.notificationStack = new ArrayList<Bundle>();
-                        }
                         if (extras.containsKey("google.message_id")) {
                             extras.putString("messageType", "notification");
                             extras.putString("tap", "background");
-                            notificationStack.add(extras);
-                            Log.d(TAG, "Notification message found on init: " + extras.toString());
+                            if (!FirebasePluginMessageDeduplicator.getInstance(applicationContext).isDuplicate(extras)) {
+                                FirebasePluginMessageQueue.getInstance(applicationContext).enqueue(extras, NotificationSpec.isHighPriority(extras));
+                            }
+                            FirebasePluginLog.v("Notification message found on init: %s", extras);
                         }
                     }
+                    FirebasePluginCore.initialize(applicationContext);
                     defaultChannelId = getStringResource("default_notification_channel_id");
                     defaultChannelName = getStringResource("default_notification_channel_name");
                     createDefaultChannel();
@@ -311,6 +317,15 @@ public class FirebasePlugin extends CordovaPlugin {
                 case "unsubscribe":
                     this.unsubscribe(callbackContext, args.getString(0));
                     break;
+                case "setTopics":
+                    this.setTopics(callbackContext, args.getJSONArray(0));
+                    break;
+                case "subscribeMany":
+                    this.subscribeMany(callbackContext, args.getJSONArray(0));
+                    break;
+                case "unsubscribeMany":
+                    this.unsubscribeMany(callbackContext, args.getJSONArray(0));
+                    break;
                 case "isAutoInitEnabled":
                     this.isAutoInitEnabled(callbackContext);
                     break;
@@ -321,7 +336,7 @@ public class FirebasePlugin extends CordovaPlugin {
                     this.unregister(callbackContext);
                     break;
                 case "onMessageReceived":
-                    this.onMessageReceived(callbackContext);
+                    this.onMessageReceived(callbackContext, args.optJSONObject(0));
                     break;
                 case "onTokenRefresh":
                     this.onTokenRefresh(callbackContext);
@@ -580,6 +595,27 @@ public class FirebasePlugin extends CordovaPlugin {
                 case "getInstallationToken":
                     this.getInstallationToken(args, callbackContext);
                     break;
+                case "getDiagnosticsLog":
+                    this.getDiagnosticsLog(callbackContext);
+                    break;
+                case "getMessagingStats":
+                    this.getMessagingStats(callbackContext);
+                    break;
+                case "getInboxMessages":
+                    this.getInboxMessages(callbackContext, args.optJSONObject(0));
+                    break;
+                case "markInboxMessagesRead":
+                    this.markInboxMessagesRead(callbackContext, args.getJSONArray(0));
+                    break;
+                case "purgeInboxMessages":
+                    this.purgeInboxMessages(callbackContext, args.optJSONObject(0));
+                    break;
+                case "scheduleNotification":
+                    this.scheduleNotification(callbackContext, args.getJSONObject(0));
+                    break;
+                case "cancelScheduledNotification":
+                    this.cancelScheduledNotification(callbackContext, args.getString(0));
+                    break;
                 default:
                     callbackContext.error("Invalid action: " + action);
                     return false;
@@ -594,6 +630,9 @@ public class FirebasePlugin extends CordovaPlugin {
     @Override
     public void onPause(boolean multitasking) {
         FirebasePlugin.inBackground = true;
+        if (applicationContext != null) {
+            FirebasePluginMessageQueue.getInstance(applicationContext).sync();
+        }
     }
 
     @Override
@@ -664,33 +703,60 @@ public class FirebasePlugin extends CordovaPlugin {
      * @return Resource
      */
     private String getStringResource(String name) {
-        return applicationContext.getString(
-                applicationContext.getResources().getIdentifier(
-                        name, "string", applicationContext.getPackageName()
-                )
-        );
+        return FirebasePluginResources.getString(applicationContext, name);
     }
 
-    private void onMessageReceived(final CallbackContext callbackContext) {
+    private void onMessageReceived(final CallbackContext callbackContext, final JSONObject options) {
         FirebasePlugin.notificationCallbackContext = callbackContext;
+        if (options != null) {
+            batchMessageDelivery = options.optBoolean("batch", false);
+            batchMessageMaxBytes = options.optInt("maxBatchBytes", DEFAULT_BATCH_MESSAGE_MAX_BYTES);
+        } else {
+            batchMessageDelivery = false;
+            batchMessageMaxBytes = DEFAULT_BATCH_MESSAGE_MAX_BYTES;
+        }
         sendPendingNotifications();
     }
 
     private synchronized void sendPendingNotifications() {
-        if (FirebasePlugin.notificationStack != null) {
-            this.cordova.getThreadPool().execute(new Runnable() {
-                public void run() {
-                    try {
-                        for (Bundle bundle : FirebasePlugin.notificationStack) {
-                            FirebasePlugin.sendMessage(bundle, applicationContext);
+        final FirebasePluginMessageQueue queue = FirebasePluginMessageQueue.getInstance(applicationContext);
+        this.cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                // Checked here as it waits for the queue to be loaded from disk
+                if (queue.isEmpty()) return;
+                // Drained messages stay in the journal until delivered, so they survive the process dying meanwhile
+                List<Bundle> highPriorityBundles = queue.drain(true);
+                List<Bundle> bundles = queue.drain(false);
+                List<Bundle> delivered = new ArrayList<Bundle>(highPriorityBundles.size() + bundles.size());
+                try {
+                    // Messages which still cannot be delivered are re-queued by sendMessage()/sendMessages()
+                    // High priority messages are delivered first and never batched
+                    for (Bundle bundle : highPriorityBundles) {
+                        FirebasePlugin.deliverMessage(bundle, applicationContext);
+                        delivered.add(bundle);
+                    }
+                    if (batchMessageDelivery) {
+                        FirebasePlugin.sendMessages(bundles, applicationContext);
+                        delivered.addAll(bundles);
+                    } else {
+                        for (Bundle bundle : bundles) {
+                            FirebasePlugin.deliverMessage(bundle, applicationContext);
+                            delivered.add(bundle);
                         }
-                        FirebasePlugin.notificationStack.clear();
-                    } catch (Exception e) {
-                        handleExceptionWithoutContext(e);
+                    }
+                } catch (Exception e) {
+                    handleExceptionWithoutContext(e);
+                } finally {
+                    queue.acknowledge(delivered);
+                    if (delivered.size() < highPriorityBundles.size() + bundles.size()) {
+                        // Not delivered due to an error: keep them queued for the next attempt
+                        List<Bundle> undelivered = new ArrayList<Bundle>(highPriorityBundles);
+                        undelivered.addAll(bundles);
+                        queue.release(undelivered);
                     }
                 }
-            });
-        }
+            }
+        });
     }
 
     private void onTokenRefresh(final CallbackContext callbackContext) {
@@ -699,6 +765,12 @@ public class FirebasePlugin extends CordovaPlugin {
         cordova.getThreadPool().execute(new Runnable() {
             public void run() {
                 try {
+                    final FirebasePluginTokenCache tokenCache = FirebasePluginTokenCache.getInstance(applicationContext);
+                    String cachedToken = tokenCache.getFreshToken();
+                    if (cachedToken != null) {
+                        FirebasePlugin.sendToken(cachedToken);
+                        return;
+                    }
                     FirebaseMessaging.getInstance().getToken().addOnCompleteListener(new OnCompleteListener<String>() {
                         @Override
                         public void onComplete(@NonNull Task<String> task) {
@@ -706,6 +778,7 @@ public class FirebasePlugin extends CordovaPlugin {
                                 if (task.isSuccessful() || task.getException() == null) {
                                     String currentToken = task.getResult();
                                     if (currentToken != null) {
+                                        tokenCache.put(currentToken);
                                         FirebasePlugin.sendToken(currentToken);
                                     }
                                 } else if (task.getException() != null) {
@@ -728,13 +801,26 @@ public class FirebasePlugin extends CordovaPlugin {
     }
 
     public static void sendMessage(Bundle bundle, Context context) {
-        if (!FirebasePlugin.hasNotificationsCallback() || (inBackground && !immediateMessagePayloadDelivery)) {
-            String packageName = context.getPackageName();
-            if (FirebasePlugin.notificationStack == null) {
-                FirebasePlugin.notificationStack = new ArrayList<Bundle>();
-            }
-            notificationStack.add(bundle);
+        if (bundle != null && FirebasePluginMessageDeduplicator.getInstance(context).isDuplicate(bundle)) {
+            return;
+        }
+        deliverMessage(bundle, context);
+    }
 
+    /**
+     * Delivers the given message bundle to the registered receivers and the JS layer, or queues it if it can't be delivered yet.
+     * Unlike {@link #sendMessage(Bundle, Context)} this doesn't check for duplicates, so queued messages can be delivered.
+     * @param bundle
+     * @param context
+     */
+    private static void deliverMessage(Bundle bundle, Context context) {
+        if (!FirebasePlugin.hasNotificationsCallback() || (inBackground() && !immediateMessagePayloadDelivery)) {
+            if (bundle != null) {
+                // Only counted when first queued, not when a drained message is returned to the queue
+                if (FirebasePluginMessageQueue.getInstance(context).enqueue(bundle, NotificationSpec.isHighPriority(bundle))) {
+                    FirebasePluginMessageLatency.record(context, bundle, FirebasePluginMessageLatency.STAGE_QUEUED);
+                }
+            }
             return;
         }
 
@@ -743,23 +829,96 @@ public class FirebasePlugin extends CordovaPlugin {
             // Pass the message bundle to the receiver manager so any registered receivers can decide to handle it
             boolean wasHandled = FirebasePluginMessageReceiverManager.sendMessage(bundle, context);
             if (wasHandled) {
-                Log.d(TAG, "Message bundle was handled by a registered receiver");
+                FirebasePluginLog.d("Message bundle was handled by a registered receiver");
             } else if (callbackContext != null) {
-                JSONObject json = new JSONObject();
-                Set<String> keys = bundle.keySet();
-                for (String key : keys) {
-                    try {
-                        json.put(key, bundle.get(key));
-                    } catch (JSONException e) {
-                        handleExceptionWithContext(e, callbackContext);
-                        return;
-                    }
+                JSONObject json;
+                try {
+                    json = bundleToJson(bundle);
+                } catch (JSONException e) {
+                    handleExceptionWithContext(e, callbackContext);
+                    return;
                 }
                 FirebasePlugin.instance.sendPluginResultAndKeepCallback(json, callbackContext);
+                FirebasePluginMessageLatency.record(context, bundle, FirebasePluginMessageLatency.STAGE_DELIVERED);
             }
         }
     }
 
+    /**
+     * Delivers the given message bundles to the JS layer as JSON arrays rather than one plugin result per message.
+     * Arrays are split into chunks of approximately batchMessageMaxBytes.
+     * Registered receivers still get to handle each bundle individually.
+     * @param bundles
+     * @param context
+     */
+    protected static void sendMessages(List<Bundle> bundles, Context context) {
+        if (!FirebasePlugin.hasNotificationsCallback() || (inBackground() && !immediateMessagePayloadDelivery)) {
+            FirebasePluginMessageQueue queue = FirebasePluginMessageQueue.getInstance(context);
+            for (Bundle bundle : bundles) {
+                if (bundle == null) continue;
+                if (queue.enqueue(bundle, NotificationSpec.isHighPriority(bundle))) {
+                    FirebasePluginMessageLatency.record(context, bundle, FirebasePluginMessageLatency.STAGE_QUEUED);
+                }
+            }
+            return;
+        }
+
+        final CallbackContext callbackContext = FirebasePlugin.notificationCallbackContext;
+        JSONArray batch = new JSONArray();
+        int batchBytes = 0;
+        for (Bundle bundle : bundles) {
+            if (bundle == null) continue;
+            if (FirebasePluginMessageReceiverManager.sendMessage(bundle, context)) {
+                FirebasePluginLog.d("Message bundle was handled by a registered receiver");
+                continue;
+            }
+
+            int bundleBytes = estimateBundleSize(bundle);
+            if (batch.length() > 0 && batchBytes + bundleBytes > batchMessageMaxBytes) {
+                FirebasePlugin.instance.sendPluginResultAndKeepCallback(batch, callbackContext);
+                batch = new JSONArray();
+                batchBytes = 0;
+            }
+            try {
+                batch.put(bundleToJson(bundle));
+                batchBytes += bundleBytes;
+                FirebasePluginMessageLatency.record(context, bundle, FirebasePluginMessageLatency.STAGE_DELIVERED);
+            } catch (JSONException e) {
+                // Not reported on the batch callback, which would tear down the message listener
+                handleExceptionWithoutContext(e);
+            }
+        }
+        if (batch.length() > 0) {
+            FirebasePlugin.instance.sendPluginResultAndKeepCallback(batch, callbackContext);
+        }
+    }
+
+    /**
+     * Serializes a message bundle as delivered to the JS layer. Also used for the message inbox and queue journal,
+     * so the payload is the same wherever it is read from.
+     */
+    static JSONObject bundleToJson(Bundle bundle) throws JSONException {
+        JSONObject json = new JSONObject();
+        Set<String> keys = bundle.keySet();
+        for (String key : keys) {
+            json.put(key, bundle.get(key));
+        }
+        return json;
+    }
+
+    /**
+     * Cheap approximation of the serialized JSON size of a bundle, used to cap batch sizes
+     * without serializing each message twice.
+     */
+    private static int estimateBundleSize(Bundle bundle) {
+        int size = 2;
+        for (String key : bundle.keySet()) {
+            Object value = bundle.get(key);
+            size += key.length() + (value != null ? value.toString().length() : 4) + 6;
+        }
+        return size;
+    }
+
     public static void sendToken(String token) {
         if (FirebasePlugin.tokenRefreshCallbackContext == null) {
             return;
@@ -767,14 +926,45 @@ public class FirebasePlugin extends CordovaPlugin {
 
         final CallbackContext callbackContext = FirebasePlugin.tokenRefreshCallbackContext;
         if (callbackContext != null && token != null) {
+            // Only notify the callback of tokens it hasn't been passed before
+            if (applicationContext != null && !FirebasePluginTokenCache.getInstance(applicationContext).markDelivered(token)) {
+                FirebasePluginLog.d("Token unchanged, not sent to onTokenRefresh");
+                return;
+            }
             FirebasePlugin.instance.sendPluginResultAndKeepCallback(token, callbackContext);
         }
     }
 
+    /**
+     * Whether the app is in the background, i.e. none of its activities is visible.
+     * Falls back to the paused state of the Cordova activity if foreground tracking is not available.
+     */
     public static boolean inBackground() {
+        if (FirebasePluginAppLifecycle.isRegistered()) {
+            return !FirebasePluginAppLifecycle.isForeground();
+        }
         return FirebasePlugin.inBackground;
     }
 
+    /**
+     * Called by {@link FirebasePluginAppLifecycle} when the app enters the foreground: delivers any queued messages.
+     */
+    static void onAppForeground() {
+        FirebasePlugin plugin = FirebasePlugin.instance;
+        if (plugin != null && FirebasePlugin.notificationCallbackContext != null) {
+            plugin.sendPendingNotifications();
+        }
+    }
+
+    /**
+     * Called by {@link FirebasePluginAppLifecycle} when the app enters the background.
+     */
+    static void onAppBackground() {
+        if (applicationContext != null) {
+            FirebasePluginMessageQueue.getInstance(applicationContext).sync();
+        }
+    }
+
     public static boolean hasNotificationsCallback() {
         return FirebasePlugin.notificationCallbackContext != null;
     }
@@ -787,7 +977,7 @@ public class FirebasePlugin extends CordovaPlugin {
             if (data != null && data.containsKey("google.message_id")) {
                 data.putString("messageType", "notification");
                 data.putString("tap", "background");
-                Log.d(TAG, "Notification message on new intent: " + data.toString());
+                FirebasePluginLog.v("Notification message on new intent: %s", data);
                 FirebasePlugin.sendMessage(data, applicationContext);
             }
         } catch (Exception e) {
@@ -800,12 +990,19 @@ public class FirebasePlugin extends CordovaPlugin {
         cordova.getThreadPool().execute(new Runnable() {
             public void run() {
                 try {
+                    final FirebasePluginTokenCache tokenCache = FirebasePluginTokenCache.getInstance(applicationContext);
+                    String cachedToken = tokenCache.getFreshToken();
+                    if (cachedToken != null) {
+                        callbackContext.success(cachedToken);
+                        return;
+                    }
                     FirebaseMessaging.getInstance().getToken().addOnCompleteListener(new OnCompleteListener<String>() {
                         @Override
                         public void onComplete(@NonNull Task<String> task) {
                             try {
                                 if (task.isSuccessful() || task.getException() == null) {
                                     String currentToken = task.getResult();
+                                    tokenCache.put(currentToken);
                                     callbackContext.success(currentToken);
                                 } else if (task.getException() != null) {
                                     callbackContext.error(task.getException().getMessage());
@@ -876,7 +1073,14 @@ public class FirebasePlugin extends CordovaPlugin {
         cordova.getThreadPool().execute(new Runnable() {
             public void run() {
                 try {
-                    handleTaskOutcome(FirebaseMessaging.getInstance().subscribeToTopic(topic), callbackContext);
+                    Task<Void> task = FirebaseMessaging.getInstance().subscribeToTopic(topic);
+                    task.addOnSuccessListener(new OnSuccessListener<Void>() {
+                        @Override
+                        public void onSuccess(Void unused) {
+                            FirebasePluginTopicSubscriptions.getInstance(applicationContext).onSubscriptionChanged(topic, true);
+                        }
+                    });
+                    handleTaskOutcome(task, callbackContext);
                 } catch (Exception e) {
                     handleExceptionWithContext(e, callbackContext);
                 }
@@ -888,7 +1092,38 @@ public class FirebasePlugin extends CordovaPlugin {
         cordova.getThreadPool().execute(new Runnable() {
             public void run() {
                 try {
-                    handleTaskOutcome(FirebaseMessaging.getInstance().unsubscribeFromTopic(topic), callbackContext);
+                    Task<Void> task = FirebaseMessaging.getInstance().unsubscribeFromTopic(topic);
+                    task.addOnSuccessListener(new OnSuccessListener<Void>() {
+                        @Override
+                        public void onSuccess(Void unused) {
+                            FirebasePluginTopicSubscriptions.getInstance(applicationContext).onSubscriptionChanged(topic, false);
+                        }
+                    });
+                    handleTaskOutcome(task, callbackContext);
+                } catch (Exception e) {
+                    handleExceptionWithContext(e, callbackContext);
+                }
+            }
+        });
+    }
+
+    private void setTopics(final CallbackContext callbackContext, final JSONArray topics) {
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try {
+                    FirebasePluginTopicSubscriptions.getInstance(applicationContext).setTopics(jsonArrayToTopics(topics), callbackContext);
+                } catch (Exception e) {
+                    handleExceptionWithContext(e, callbackContext);
+                }
+            }
+        });
+    }
+
+    private void subscribeMany(final CallbackContext callbackContext, final JSONArray topics) {
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try {
+                    FirebasePluginTopicSubscriptions.getInstance(applicationContext).subscribeMany(jsonArrayToTopics(topics), callbackContext);
                 } catch (Exception e) {
                     handleExceptionWithContext(e, callbackContext);
                 }
@@ -896,10 +1131,31 @@ public class FirebasePlugin extends CordovaPlugin {
         });
     }
 
+    private void unsubscribeMany(final CallbackContext callbackContext, final JSONArray topics) {
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try {
+                    FirebasePluginTopicSubscriptions.getInstance(applicationContext).unsubscribeMany(jsonArrayToTopics(topics), callbackContext);
+                } catch (Exception e) {
+                    handleExceptionWithContext(e, callbackContext);
+                }
+            }
+        });
+    }
+
+    private static Set<String> jsonArrayToTopics(JSONArray topics) throws JSONException {
+        Set<String> result = new LinkedHashSet<String>();
+        for (int i = 0; i < topics.length(); i++) {
+            result.add(topics.getString(i));
+        }
+        return result;
+    }
+
     private void unregister(final CallbackContext callbackContext) {
         cordova.getThreadPool().execute(new Runnable() {
             public void run() {
                 try {
+                    FirebasePluginTokenCache.getInstance(applicationContext).invalidate();
                     handleTaskOutcome(FirebaseMessaging.getInstance().deleteToken(), callbackContext);
                 } catch (Exception e) {
                     handleExceptionWithContext(e, callbackContext);
@@ -1754,7 +2010,7 @@ public class FirebasePlugin extends CordovaPlugin {
                                 // 2 - Auto-retrieval. On some devices Google Play services can automatically
                                 //     detect the incoming verification SMS and perform verification without
                                 //     user action.
-                                Log.d(TAG, "success: verifyPhoneNumber.onVerificationCompleted");
+                                FirebasePluginLog.d("success: verifyPhoneNumber.onVerificationCompleted");
 
                                 String id = FirebasePlugin.instance.saveAuthCredential((AuthCredential) credential);
 
@@ -1797,7 +2053,7 @@ public class FirebasePlugin extends CordovaPlugin {
                                 // The SMS verification code has been sent to the provided phone number, we
                                 // now need to ask the user to enter the code and then construct a credential
                                 // by combining the code with a verification ID [(in app)].
-                                Log.d(TAG, "success: verifyPhoneNumber.onCodeSent");
+                                FirebasePluginLog.d("success: verifyPhoneNumber.onCodeSent");
 
                                 JSONObject returnResults = new JSONObject();
                                 try {
@@ -1833,7 +2089,7 @@ public class FirebasePlugin extends CordovaPlugin {
                     }
 
                     if (fakeVerificationCode != null && !fakeVerificationCode.equals("null")) {
-                        Log.d(TAG, "verifyPhoneNumber: using mock instant verification for test phone number");
+                        FirebasePluginLog.d("verifyPhoneNumber: using mock instant verification for test phone number");
                         FirebaseAuth.getInstance().getFirebaseAuthSettings().setAutoRetrievedSmsCodeForPhoneNumber(number, fakeVerificationCode);
                     }
 
@@ -1946,7 +2202,7 @@ public class FirebasePlugin extends CordovaPlugin {
                                 // 2 - Auto-retrieval. On some devices Google Play services can automatically
                                 //     detect the incoming verification SMS and perform verification without
                                 //     user action.
-                                Log.d(TAG, "success: enrollSecondAuthFactor.onVerificationCompleted");
+                                FirebasePluginLog.d("success: enrollSecondAuthFactor.onVerificationCompleted");
                                 credentialReceiver.onCredential(credential);
 
                             } catch (Exception e) {
@@ -1983,7 +2239,7 @@ public class FirebasePlugin extends CordovaPlugin {
                                 // The SMS verification code has been sent to the provided phone number, we
                                 // now need to ask the user to enter the code and then construct a credential
                                 // by combining the code with a verification ID [(in app)].
-                                Log.d(TAG, "success: enrollSecondAuthFactor.onCodeSent");
+                                FirebasePluginLog.d("success: enrollSecondAuthFactor.onCodeSent");
 
                                 JSONObject returnResults = new JSONObject();
                                 try {
@@ -2012,7 +2268,7 @@ public class FirebasePlugin extends CordovaPlugin {
                                         MultiFactorSession multiFactorSession = task.getResult();
 
                                         if (finalFakeVerificationCode != null && !finalFakeVerificationCode.equals("null")) {
-                                            Log.d(TAG, "enrollSecondAuthFactor: using mock instant verification for test phone number");
+                                            FirebasePluginLog.d("enrollSecondAuthFactor: using mock instant verification for test phone number");
                                             FirebaseAuth.getInstance().getFirebaseAuthSettings().setAutoRetrievedSmsCodeForPhoneNumber(phoneNumber, finalFakeVerificationCode);
                                         }
 
@@ -2159,7 +2415,7 @@ public class FirebasePlugin extends CordovaPlugin {
                                 // 2 - Auto-retrieval. On some devices Google Play services can automatically
                                 //     detect the incoming verification SMS and perform verification without
                                 //     user action.
-                                Log.d(TAG, "success: verifySecondAuthFactor.onVerificationCompleted");
+                                FirebasePluginLog.d("success: verifySecondAuthFactor.onVerificationCompleted");
                                 credentialReceiver.onCredential(credential);
 
                             } catch (Exception e) {
@@ -2193,7 +2449,7 @@ public class FirebasePlugin extends CordovaPlugin {
                                 // The SMS verification code has been sent to the provided phone number, we
                                 // now need to ask the user to enter the code and then construct a credential
                                 // by combining the code with a verification ID [(in app)].
-                                Log.d(TAG, "success: verifySecondAuthFactor.onCodeSent");
+                                FirebasePluginLog.d("success: verifySecondAuthFactor.onCodeSent");
 
                                 JSONObject returnResults = new JSONObject();
                                 try {
@@ -2217,7 +2473,7 @@ public class FirebasePlugin extends CordovaPlugin {
                     boolean finalRequireSmsValidation = requireSmsValidation;
 
                     if (finalFakeVerificationCode != null && !finalFakeVerificationCode.equals("null")) {
-                        Log.d(TAG, "verifySecondAuthFactor: using mock instant verification for test phone number");
+                        FirebasePluginLog.d("verifySecondAuthFactor: using mock instant verification for test phone number");
                         FirebaseAuth.getInstance().getFirebaseAuthSettings().setAutoRetrievedSmsCodeForPhoneNumber(finalPhoneNumber, finalFakeVerificationCode);
                     }
 
@@ -2328,7 +2584,7 @@ public class FirebasePlugin extends CordovaPlugin {
 
                     FirebaseAuth.getInstance().setLanguageCode(lang);
 
-                    Log.d(TAG, "Language code setted to " + lang);
+                    FirebasePluginLog.d("Language code setted to %s", lang);
                 } catch (Exception e) {
                     handleExceptionWithContext(e, callbackContext);
                 }
@@ -2884,6 +3140,7 @@ public class FirebasePlugin extends CordovaPlugin {
                 try {
                     NotificationManager nm = (NotificationManager) applicationContext.getSystemService(Context.NOTIFICATION_SERVICE);
                     nm.cancelAll();
+                    FirebasePluginNotificationRenderer.invalidateActiveNotifications();
                     callbackContext.success();
                 } catch (Exception e) {
                     handleExceptionWithContext(e, callbackContext);
@@ -2910,20 +3167,21 @@ public class FirebasePlugin extends CordovaPlugin {
         // only call on Android O and above
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             String id = options.getString("id");
-            Log.i(TAG, "Creating channel id=" + id);
+            FirebasePluginLog.i("Creating channel id=%s", id);
 
             if (channelExists(id)) {
                 deleteChannel(id);
             }
 
-            NotificationManager nm = (NotificationManager) applicationContext.getSystemService(Context.NOTIFICATION_SERVICE);
-            String packageName = cordovaActivity.getPackageName();
+            Context context = getApplicationContextOrCore();
+            NotificationManager nm = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+            String packageName = context.getPackageName();
 
             String name = options.optString("name", "");
-            Log.d(TAG, "Channel " + id + " - name=" + name);
+            FirebasePluginLog.d("Channel %s - name=%s", id, name);
 
             int importance = options.optInt("importance", NotificationManager.IMPORTANCE_HIGH);
-            Log.d(TAG, "Channel " + id + " - importance=" + importance);
+            FirebasePluginLog.d("Channel %s - importance=%s", id, importance);
 
             channel = new NotificationChannel(id,
                     name,
@@ -2931,35 +3189,35 @@ public class FirebasePlugin extends CordovaPlugin {
 
             // Description
             String description = options.optString("description", "");
-            Log.d(TAG, "Channel " + id + " - description=" + description);
+            FirebasePluginLog.d("Channel %s - description=%s", id, description);
             channel.setDescription(description);
 
             // Light
             boolean light = options.optBoolean("light", true);
-            Log.d(TAG, "Channel " + id + " - light=" + light);
+            FirebasePluginLog.d("Channel %s - light=%s", id, light);
             channel.enableLights(light);
 
             int lightColor = options.optInt("lightColor", -1);
             if (lightColor != -1) {
-                Log.d(TAG, "Channel " + id + " - lightColor=" + lightColor);
+                FirebasePluginLog.d("Channel %s - lightColor=%s", id, lightColor);
                 channel.setLightColor(lightColor);
             }
 
             // Visibility
             int visibility = options.optInt("visibility", NotificationCompat.VISIBILITY_PUBLIC);
-            Log.d(TAG, "Channel " + id + " - visibility=" + visibility);
+            FirebasePluginLog.d("Channel %s - visibility=%s", id, visibility);
             channel.setLockscreenVisibility(visibility);
 
             // Badge
             boolean badge = options.optBoolean("badge", true);
-            Log.d(TAG, "Channel " + id + " - badge=" + badge);
+            FirebasePluginLog.d("Channel %s - badge=%s", id, badge);
             channel.setShowBadge(badge);
 
             int usage = options.optInt("usage", AudioAttributes.USAGE_NOTIFICATION_RINGTONE);
-            Log.d(TAG, "Channel " + id + " - usage=" + usage);
+            FirebasePluginLog.d("Channel %s - usage=%s", id, usage);
 
             int streamType = options.optInt("streamType", -1);
-            Log.d(TAG, "Channel " + id + " - streamType=" + streamType);
+            FirebasePluginLog.d("Channel %s - streamType=%s", id, streamType);
 
             // Sound
             String sound = options.optString("sound", "default");
@@ -2974,19 +3232,19 @@ public class FirebasePlugin extends CordovaPlugin {
             AudioAttributes audioAttributes = audioAttributesBuilder.build();
             if ("ringtone".equals(sound)) {
                 channel.setSound(RingtoneManager.getDefaultUri(RingtoneManager.TYPE_RINGTONE), audioAttributes);
-                Log.d(TAG, "Channel " + id + " - sound=ringtone");
+                FirebasePluginLog.d("Channel %s - sound=ringtone", id);
             } else if (!sound.contentEquals("false")) {
                 if (!sound.contentEquals("default")) {
                     Uri soundUri = Uri.parse(ContentResolver.SCHEME_ANDROID_RESOURCE + "://" + packageName + "/raw/" + sound);
                     channel.setSound(soundUri, audioAttributes);
-                    Log.d(TAG, "Channel " + id + " - sound=" + sound);
+                    FirebasePluginLog.d("Channel %s - sound=%s", id, sound);
                 } else {
                     channel.setSound(RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION), audioAttributes);
-                    Log.d(TAG, "Channel " + id + " - sound=default");
+                    FirebasePluginLog.d("Channel %s - sound=default", id);
                 }
             } else {
                 channel.setSound(null, null);
-                Log.d(TAG, "Channel " + id + " - sound=none");
+                FirebasePluginLog.d("Channel %s - sound=none", id);
             }
 
             // Vibration: if vibration setting is an array set vibration pattern, else set enable vibration.
@@ -2999,15 +3257,16 @@ public class FirebasePlugin extends CordovaPlugin {
                 }
                 channel.enableVibration(true);
                 channel.setVibrationPattern(patternArray);
-                Log.d(TAG, "Channel " + id + " - vibrate=" + pattern);
+                FirebasePluginLog.d("Channel %s - vibrate=%s", id, pattern);
             } else {
                 boolean vibrate = options.optBoolean("vibration", true);
                 channel.enableVibration(vibrate);
-                Log.d(TAG, "Channel " + id + " - vibrate=" + vibrate);
+                FirebasePluginLog.d("Channel %s - vibrate=%s", id, vibrate);
             }
 
             // Create channel
             nm.createNotificationChannel(channel);
+            FirebasePluginChannelRegistry.put(channel);
         }
         return channel;
     }
@@ -3063,8 +3322,9 @@ public class FirebasePlugin extends CordovaPlugin {
     protected static void deleteChannel(final String channelID) {
         // only call on Android O and above
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            NotificationManager nm = (NotificationManager) applicationContext.getSystemService(Context.NOTIFICATION_SERVICE);
+            NotificationManager nm = (NotificationManager) getApplicationContextOrCore().getSystemService(Context.NOTIFICATION_SERVICE);
             nm.deleteNotificationChannel(channelID);
+            FirebasePluginChannelRegistry.remove(channelID);
         }
     }
 
@@ -3090,29 +3350,30 @@ public class FirebasePlugin extends CordovaPlugin {
         });
     }
 
+    /**
+     * Queries the NotificationManager for the current channels and re-syncs the channel registry with them.
+     * @return
+     */
     public static List<NotificationChannel> listChannels() {
-        List<NotificationChannel> notificationChannels = null;
         // only call on Android O and above
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            NotificationManager nm = (NotificationManager) applicationContext.getSystemService(Context.NOTIFICATION_SERVICE);
-            notificationChannels = nm.getNotificationChannels();
-        }
-        return notificationChannels;
+        return FirebasePluginChannelRegistry.sync(applicationContext);
     }
 
+    /**
+     * Checks the in-memory channel registry rather than querying the NotificationManager.
+     * @param channelId
+     * @return
+     */
     public static boolean channelExists(String channelId) {
-        boolean exists = false;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            List<NotificationChannel> notificationChannels = FirebasePlugin.listChannels();
-            if (notificationChannels != null) {
-                for (NotificationChannel notificationChannel : notificationChannels) {
-                    if (notificationChannel.getId().equals(channelId)) {
-                        exists = true;
-                    }
-                }
-            }
-        }
-        return exists;
+        return FirebasePluginChannelRegistry.exists(getApplicationContextOrCore(), channelId);
+    }
+
+    /**
+     * The plugin's application context, or the headless core's if the plugin was destroyed or is not initialized yet.
+     */
+    private static Context getApplicationContextOrCore() {
+        Context context = applicationContext;
+        return context != null ? context : FirebasePluginCore.getApplicationContext();
     }
 
     //
@@ -3733,6 +3994,104 @@ public class FirebasePlugin extends CordovaPlugin {
         });
     }
 
+    /*
+     * Diagnostics
+     */
+    private void getDiagnosticsLog(CallbackContext callbackContext) throws JSONException {
+        callbackContext.success(FirebasePluginLog.dump());
+    }
+
+    private void getMessagingStats(final CallbackContext callbackContext) {
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try {
+                    callbackContext.success(FirebasePluginMessagingStats.toJson(applicationContext));
+                } catch (Exception e) {
+                    handleExceptionWithContext(e, callbackContext);
+                }
+            }
+        });
+    }
+
+    private void getInboxMessages(final CallbackContext callbackContext, final JSONObject options) {
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try {
+                    if (!FirebasePluginInbox.isEnabled(applicationContext)) {
+                        callbackContext.error("Message inbox is not enabled");
+                        return;
+                    }
+                    callbackContext.success(FirebasePluginInbox.getInstance(applicationContext).getMessages(options != null ? options : new JSONObject()));
+                } catch (Exception e) {
+                    handleExceptionWithContext(e, callbackContext);
+                }
+            }
+        });
+    }
+
+    private void markInboxMessagesRead(final CallbackContext callbackContext, final JSONArray ids) {
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try {
+                    if (!FirebasePluginInbox.isEnabled(applicationContext)) {
+                        callbackContext.error("Message inbox is not enabled");
+                        return;
+                    }
+                    callbackContext.success(FirebasePluginInbox.getInstance(applicationContext).markRead(ids));
+                } catch (Exception e) {
+                    handleExceptionWithContext(e, callbackContext);
+                }
+            }
+        });
+    }
+
+    private void purgeInboxMessages(final CallbackContext callbackContext, final JSONObject options) {
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try {
+                    if (!FirebasePluginInbox.isEnabled(applicationContext)) {
+                        callbackContext.error("Message inbox is not enabled");
+                        return;
+                    }
+                    callbackContext.success(FirebasePluginInbox.getInstance(applicationContext).purge(options != null ? options : new JSONObject()));
+                } catch (Exception e) {
+                    handleExceptionWithContext(e, callbackContext);
+                }
+            }
+        });
+    }
+
+    private void scheduleNotification(final CallbackContext callbackContext, final JSONObject options) {
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try {
+                    String id = options.getString("id");
+                    long at = options.getLong("at");
+                    JSONObject data = options.has("data") ? new JSONObject(options.getJSONObject("data").toString()) : new JSONObject();
+                    if (options.has("title")) data.put("notification_title", options.getString("title"));
+                    if (options.has("body")) data.put("notification_body", options.getString("body"));
+                    FirebasePluginScheduledNotifications.getInstance(applicationContext).schedule(id, at, data);
+                    callbackContext.success();
+                } catch (Exception e) {
+                    handleExceptionWithContext(e, callbackContext);
+                }
+            }
+        });
+    }
+
+    private void cancelScheduledNotification(final CallbackContext callbackContext, final String id) {
+        cordova.getThreadPool().execute(new Runnable() {
+            public void run() {
+                try {
+                    boolean cancelled = FirebasePluginScheduledNotifications.getInstance(applicationContext).cancel(id);
+                    callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, cancelled));
+                } catch (Exception e) {
+                    handleExceptionWithContext(e, callbackContext);
+                }
+            }
+        });
+    }
+
 
     /*
      * Helper methods
@@ -3825,10 +4184,10 @@ public class FirebasePlugin extends CordovaPlugin {
 
     private void executePendingGlobalJavascript() {
         if(pendingGlobalJS == null){
-            Log.d(TAG, "No pending global JS calls");
+            FirebasePluginLog.d("No pending global JS calls");
             return;
         }
-        Log.d(TAG, "Executing "+pendingGlobalJS.size()+" pending global JS calls");
+        FirebasePluginLog.d("Executing %s pending global JS calls", pendingGlobalJS.size());
         for(String jsString : pendingGlobalJS){
             doExecuteGlobalJavascript(jsString);
         }
@@ -3866,6 +4225,53 @@ public class FirebasePlugin extends CordovaPlugin {
         return applicationContext.getPackageManager().getApplicationInfo(applicationContext.getPackageName(), PackageManager.GET_META_DATA).metaData.getBoolean(name);
     }
 
+    /**
+     * Reads an integer meta-data value from the manifest.
+     * Can be used without the plugin being initialized, e.g. from FirebasePluginMessagingService.
+     * @param context
+     * @param name
+     * @param defaultValue returned if the meta-data is missing or not numeric
+     * @return
+     */
+    protected static int getManifestMetaDataInt(Context context, String name, int defaultValue) {
+        try {
+            Bundle metaData = context.getPackageManager().getApplicationInfo(context.getPackageName(), PackageManager.GET_META_DATA).metaData;
+            if (metaData == null) return defaultValue;
+            Object value = metaData.get(name);
+            if (value instanceof Integer) {
+                return (Integer) value;
+            } else if (value instanceof String && !((String) value).isEmpty()) {
+                return Integer.parseInt((String) value);
+            }
+        } catch (Exception e) {
+            FirebasePluginLog.w("Invalid manifest meta-data value for " + name, e);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Reads a boolean meta-data value from the manifest.
+     * @param context
+     * @param name
+     * @param defaultValue returned if the meta-data is missing
+     * @return
+     */
+    protected static boolean getManifestMetaDataBoolean(Context context, String name, boolean defaultValue) {
+        try {
+            Bundle metaData = context.getPackageManager().getApplicationInfo(context.getPackageName(), PackageManager.GET_META_DATA).metaData;
+            if (metaData == null) return defaultValue;
+            Object value = metaData.get(name);
+            if (value instanceof Boolean) {
+                return (Boolean) value;
+            } else if (value instanceof String && !((String) value).isEmpty()) {
+                return Boolean.parseBoolean((String) value);
+            }
+        } catch (Exception e) {
+            FirebasePluginLog.w("Invalid manifest meta-data value for " + name, e);
+        }
+        return defaultValue;
+    }
+
     private String getPluginVariableFromConfigXml(String name) {
         String value = null;
         try {
@@ -4037,10 +4443,10 @@ public class FirebasePlugin extends CordovaPlugin {
     private AuthCredential obtainAuthCredential(JSONObject jsonCredential) throws JSONException {
         AuthCredential authCredential = null;
         if (jsonCredential.has("verificationId") && jsonCredential.has("code")) {
-            Log.d(TAG, "Using specified verificationId and code to authenticate");
+            FirebasePluginLog.d("Using specified verificationId and code to authenticate");
             authCredential = (AuthCredential) PhoneAuthProvider.getCredential(jsonCredential.getString("verificationId"), jsonCredential.getString("code"));
         } else if (jsonCredential.has("id") && FirebasePlugin.instance.authCredentials.containsKey(jsonCredential.getString("id"))) {
-            Log.d(TAG, "Using native auth credential to authenticate");
+            FirebasePluginLog.d("Using native auth credential to authenticate");
             authCredential = FirebasePlugin.instance.authCredentials.get(jsonCredential.getString("id"));
             FirebasePlugin.instance.authCredentials.remove(jsonCredential.getString("id")); // remove from persistent list
         }
@@ -4050,7 +4456,7 @@ public class FirebasePlugin extends CordovaPlugin {
     private OAuthProvider obtainAuthProvider(JSONObject jsonCredential) throws JSONException {
         OAuthProvider authProvider = null;
         if (jsonCredential.has("id") && FirebasePlugin.instance.authProviders.containsKey(jsonCredential.getString("id"))) {
-            Log.d(TAG, "Using native auth provider to authenticate");
+            FirebasePluginLog.d("Using native auth provider to authenticate");
             authProvider = FirebasePlugin.instance.authProviders.get(jsonCredential.getString("id"));
         }
         return authProvider;
@@ -4060,7 +4466,7 @@ public class FirebasePlugin extends CordovaPlugin {
     private static class AuthResultOnSuccessListener implements OnSuccessListener<AuthResult> {
         @Override
         public void onSuccess(AuthResult authResult) {
-            Log.d(TAG, "AuthResult:onSuccess:" + authResult);
+            FirebasePluginLog.d("AuthResult:onSuccess:%s", authResult);
             if (FirebasePlugin.instance.authResultCallbackContext != null) {
                 FirebasePlugin.instance.handleAuthResultSuccess(FirebasePlugin.instance.authResultCallbackContext);
             }
@@ -0,0 +1,102 @@
+package org.apache.cordova.firebase;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+
+/**
+ * Tracks whether the app is in the foreground, i.e. any of its activities is started (visible), across all
+ * activities of the process rather than only the Cordova activity.
+ * <br/>
+ * Registered by {@link FirebasePluginCore#initialize(Context)}, so it is also in place when a message starts the
+ * process headless: the app is then correctly reported as in the background until an activity is started.
+ * Activities recreated for a configuration change (e.g. rotation) don't cause a transition.
+ * <br/>
+ * On becoming foreground, queued messages are delivered straight away; on going to the background the message
+ * queue is persisted.
+ */
+public class FirebasePluginAppLifecycle implements Application.ActivityLifecycleCallbacks {
+
+    private static FirebasePluginAppLifecycle instance;
+
+    // Only modified on the main thread
+    private volatile int startedCount = 0;
+    private boolean changingConfigurations = false;
+
+    /**
+     * Registers the tracker with the application. Only does work once per process.
+     * @param context
+     */
+    public static synchronized void register(Context context) {
+        if (instance != null) return;
+        Context applicationContext = context.getApplicationContext();
+        if (!(applicationContext instanceof Application)) {
+            FirebasePluginLog.i("Application not available, falling back to Cordova activity state for foreground tracking");
+            return;
+        }
+        instance = new FirebasePluginAppLifecycle();
+        ((Application) applicationContext).registerActivityLifecycleCallbacks(instance);
+    }
+
+    public static boolean isRegistered() {
+        return instance != null;
+    }
+
+    /**
+     * Whether any activity of the app is started.
+     * @return false if not registered
+     */
+    public static boolean isForeground() {
+        FirebasePluginAppLifecycle tracker = instance;
+        return tracker != null && tracker.startedCount > 0;
+    }
+
+    private FirebasePluginAppLifecycle() {
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+        if (changingConfigurations) {
+            // Same activity recreated for a configuration change: still in the foreground
+            changingConfigurations = false;
+            return;
+        }
+        if (startedCount++ == 0) {
+            FirebasePluginLog.d("App entered foreground");
+            FirebasePlugin.onAppForeground();
+        }
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+        if (activity.isChangingConfigurations()) {
+            changingConfigurations = true;
+            return;
+        }
+        if (startedCount > 0 && --startedCount == 0) {
+            FirebasePluginLog.d("App entered background");
+            FirebasePlugin.onAppBackground();
+        }
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+    }
+
+    @Override
+    public void onActivityResumed(Activity activity) {
+    }
+
+    @Override
+    public void onActivityPaused(Activity activity) {
+    }
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+    }
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {
+    }
+}
@@ -0,0 +1,211 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.os.Build;
+import android.util.DisplayMetrics;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Decodes notification images at the size they are actually displayed at rather than at full resolution.
+ * <br/>
+ * The image bounds are read first and the image is then decoded with an inSampleSize matching the target size
+ * of the chosen image type (large icon vs big picture).
+ * Intermediate bitmaps are recycled through a small pool and reused via inBitmap; the Paint objects used for
+ * circle cropping are shared.
+ */
+public class FirebasePluginBitmapDecoder {
+
+    /** Maximum width of a BigPictureStyle image as rendered by the system UI */
+    private static final int BIG_PICTURE_MAX_WIDTH_DP = 450;
+
+    private static final int POOL_MAX_SIZE = 2;
+    private static final long POOL_MAX_BYTES = 8 * 1024 * 1024;
+
+    private static final List<Bitmap> pool = new ArrayList<Bitmap>();
+
+    private static final Paint circlePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private static final Paint circleBitmapPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    static {
+        circleBitmapPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));
+    }
+
+    private static long lastMessageBitmapBytes = 0;
+    private static long peakMessageBitmapBytes = 0;
+
+    /**
+     * Returns {width, height} in pixels of a notification large icon.
+     */
+    public static int[] getLargeIconSize(Context context) {
+        Resources resources = context.getResources();
+        return new int[]{
+                resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width),
+                resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+        };
+    }
+
+    /**
+     * Returns {width, height} in pixels of a BigPictureStyle image.
+     */
+    public static int[] getBigPictureSize(Context context) {
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        int width = Math.min(Math.min(metrics.widthPixels, metrics.heightPixels), Math.round(BIG_PICTURE_MAX_WIDTH_DP * metrics.density));
+        return new int[]{width, width / 2};
+    }
+
+    /**
+     * Decodes encoded image bytes so that the resulting bitmap is no smaller than the target size
+     * but not needlessly larger.
+     * @param data
+     * @param targetWidth
+     * @param targetHeight
+     * @return decoded bitmap or null if the data could not be decoded
+     */
+    public static Bitmap decode(byte[] data, int targetWidth, int targetHeight) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight);
+        options.inMutable = true;
+        options.inBitmap = takeFromPool(options.outWidth / options.inSampleSize, options.outHeight / options.inSampleSize);
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap could not be reused for this image
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+
+    /**
+     * Decodes a drawable resource at the given target size.
+     */
+    public static Bitmap decodeResource(Resources resources, int resId, int targetWidth, int targetHeight) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, resId, options);
+        options.inJustDecodeBounds = false;
+        if (options.outWidth > 0 && options.outHeight > 0) {
+            options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight);
+        }
+        return BitmapFactory.decodeResource(resources, resId, options);
+    }
+
+    /**
+     * Crops the given bitmap to a centered circle.
+     * The source bitmap is returned to the pool.
+     * @param bitmap
+     * @return
+     */
+    public static Bitmap getCircleBitmap(Bitmap bitmap) {
+        if (bitmap == null) {
+            return null;
+        }
+
+        final int size = Math.min(bitmap.getWidth(), bitmap.getHeight());
+        final Bitmap output = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(output);
+        final int left = (bitmap.getWidth() - size) / 2;
+        final int top = (bitmap.getHeight() - size) / 2;
+        final Rect src = new Rect(left, top, left + size, top + size);
+        final Rect dst = new Rect(0, 0, size, size);
+        final float radius = size / 2f;
+
+        synchronized (circlePaint) {
+            canvas.drawARGB(0, 0, 0, 0);
+            canvas.drawCircle(radius, radius, radius, circlePaint);
+            canvas.drawBitmap(bitmap, src, dst, circleBitmapPaint);
+        }
+
+        release(bitmap);
+        return output;
+    }
+
+    /**
+     * Returns a bitmap which is no longer needed to the pool so it can be reused for decoding.
+     * Bitmaps which cannot be pooled are recycled.
+     */
+    public static void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) return;
+        synchronized (pool) {
+            if (bitmap.isMutable() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && pool.size() < POOL_MAX_SIZE
+                    && getPoolBytes() + bitmap.getAllocationByteCount() <= POOL_MAX_BYTES) {
+                pool.add(bitmap);
+                return;
+            }
+        }
+        bitmap.recycle();
+    }
+
+    /**
+     * Records the bitmap memory allocated to render a single notification.
+     * @param bytes
+     */
+    public static synchronized void recordMessageBitmapBytes(long bytes) {
+        lastMessageBitmapBytes = bytes;
+        if (bytes > peakMessageBitmapBytes) {
+            peakMessageBitmapBytes = bytes;
+        }
+    }
+
+    public static synchronized long getLastMessageBitmapBytes() {
+        return lastMessageBitmapBytes;
+    }
+
+    public static synchronized long getPeakMessageBitmapBytes() {
+        return peakMessageBitmapBytes;
+    }
+
+    public static long getByteCount(Bitmap bitmap) {
+        if (bitmap == null) return 0;
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT ? bitmap.getAllocationByteCount() : bitmap.getByteCount();
+    }
+
+    private static int calculateInSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int inSampleSize = 1;
+        if (targetWidth <= 0 || targetHeight <= 0) return inSampleSize;
+        while ((width / (inSampleSize * 2)) >= targetWidth && (height / (inSampleSize * 2)) >= targetHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    private static Bitmap takeFromPool(int width, int height) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) return null;
+        long requiredBytes = (long) width * height * 4;
+        synchronized (pool) {
+            Iterator<Bitmap> iterator = pool.iterator();
+            while (iterator.hasNext()) {
+                Bitmap bitmap = iterator.next();
+                if (bitmap.getAllocationByteCount() >= requiredBytes) {
+                    iterator.remove();
+                    return bitmap;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static long getPoolBytes() {
+        long bytes = 0;
+        for (Bitmap bitmap : pool) {
+            bytes += bitmap.getAllocationByteCount();
+        }
+        return bytes;
+    }
+}
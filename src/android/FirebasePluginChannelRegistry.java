@@ -0,0 +1,80 @@
+package org.apache.cordova.firebase;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory registry of the app's notification channels, keyed by channel ID.
+ * <br/>
+ * Populated from {@link NotificationManager#getNotificationChannels()} once per process and then kept up to date
+ * by the plugin's own channel operations, so checking a channel while handling a message needs no binder call.
+ * Channels created outside the plugin are picked up by an explicit {@link #sync(Context)} or by a rate-limited
+ * re-sync when an unknown channel ID is looked up.
+ */
+public class FirebasePluginChannelRegistry {
+
+    /** Minimum interval between re-syncs triggered by lookups of unknown channel IDs */
+    private static final long MISS_RESYNC_INTERVAL_MS = 60 * 1000;
+
+    // Replaced as a whole by sync(), so lookups never see a partially reloaded map; modified only while holding the class lock
+    private static volatile Map<String, NotificationChannel> channels = new ConcurrentHashMap<String, NotificationChannel>();
+    private static volatile boolean synced = false;
+    private static volatile long lastSyncTime = 0;
+
+    /**
+     * Checks whether a channel with the given ID exists.
+     * Always false below Android 8.
+     * @param context
+     * @param channelId
+     * @return
+     */
+    public static boolean exists(Context context, String channelId) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O || channelId == null) return false;
+        if (!synced) {
+            sync(context);
+        }
+        if (channels.containsKey(channelId)) return true;
+
+        if (SystemClock.elapsedRealtime() - lastSyncTime > MISS_RESYNC_INTERVAL_MS) {
+            sync(context);
+            return channels.containsKey(channelId);
+        }
+        return false;
+    }
+
+    /**
+     * Reloads all channels from the NotificationManager.
+     * @param context
+     * @return the current list of channels, or null below Android 8
+     */
+    public static synchronized List<NotificationChannel> sync(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return null;
+        NotificationManager nm = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        List<NotificationChannel> notificationChannels = nm.getNotificationChannels();
+        Map<String, NotificationChannel> reloaded = new ConcurrentHashMap<String, NotificationChannel>();
+        for (NotificationChannel channel : notificationChannels) {
+            reloaded.put(channel.getId(), channel);
+        }
+        channels = reloaded;
+        synced = true;
+        lastSyncTime = SystemClock.elapsedRealtime();
+        return notificationChannels;
+    }
+
+    protected static synchronized void put(NotificationChannel channel) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O || channel == null) return;
+        channels.put(channel.getId(), channel);
+    }
+
+    protected static synchronized void remove(String channelId) {
+        if (channelId == null) return;
+        channels.remove(channelId);
+    }
+}
@@ -0,0 +1,125 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+
+/**
+ * Minimal state required to receive messages and display notifications, independent of the Cordova plugin.
+ * <br/>
+ * When a message wakes up a terminated app, {@link FirebasePluginMessagingService} runs before (and possibly
+ * without) {@link FirebasePlugin#pluginInitialize()}. It initializes only this headless core: the resource cache,
+ * the default notification channel, the channel registry, the persisted message queue and foreground tracking.
+ * Auth, Firestore, Functions and Analytics are left to the plugin.
+ */
+public final class FirebasePluginCore {
+
+    /** Fallback process start time for API levels which don't provide it */
+    private static final long CLASS_LOAD_ELAPSED = SystemClock.elapsedRealtime();
+
+    private static volatile boolean initialized = false;
+    private static volatile boolean headless = false;
+    /** Held by the core itself, as the plugin clears its context when destroyed while the process keeps receiving messages */
+    private static volatile Context applicationContext;
+
+    private static long initializationMs = -1;
+    private static long coldStartToNotificationMs = -1;
+
+    private FirebasePluginCore() {
+    }
+
+    /**
+     * Initializes the headless core. Only does work once per process.
+     * @param context
+     */
+    public static void initialize(Context context) {
+        if (initialized) return;
+        synchronized (FirebasePluginCore.class) {
+            if (initialized) return;
+            long start = SystemClock.elapsedRealtime();
+
+            applicationContext = context.getApplicationContext();
+            if (FirebasePlugin.applicationContext == null) {
+                FirebasePlugin.applicationContext = applicationContext;
+                headless = true;
+            }
+            FirebasePluginLog.initialize(applicationContext);
+            FirebasePluginResources.warmUp(applicationContext);
+
+            if (FirebasePlugin.defaultChannelId == null) {
+                FirebasePlugin.defaultChannelId = FirebasePluginResources.getString(applicationContext, "default_notification_channel_id");
+                FirebasePlugin.defaultChannelName = FirebasePluginResources.getString(applicationContext, "default_notification_channel_name");
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && FirebasePlugin.defaultChannelId != null
+                    && !FirebasePluginChannelRegistry.exists(applicationContext, FirebasePlugin.defaultChannelId)) {
+                try {
+                    FirebasePlugin.createDefaultChannel();
+                } catch (Exception e) {
+                    FirebasePlugin.handleExceptionWithoutContext(e);
+                }
+            }
+
+            FirebasePluginMessageQueue.getInstance(applicationContext);
+            FirebasePluginAppLifecycle.register(applicationContext);
+
+            initializationMs = SystemClock.elapsedRealtime() - start;
+            initialized = true;
+            FirebasePluginLog.d("Core initialized in %s ms (headless=%s)", initializationMs, headless);
+        }
+    }
+
+    /**
+     * Application context the core was initialized with.
+     * @return null if not initialized
+     */
+    public static Context getApplicationContext() {
+        return applicationContext;
+    }
+
+    public static boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * Whether the core was initialized by a message before the Cordova plugin was.
+     */
+    public static boolean isHeadless() {
+        return headless;
+    }
+
+    /**
+     * Time taken by {@link #initialize(Context)}.
+     * @return -1 if not initialized
+     */
+    public static synchronized long getInitializationMs() {
+        return initializationMs;
+    }
+
+    /**
+     * Time from process start to the first notification being posted, if the process was started headless.
+     * @return -1 if not applicable
+     */
+    public static synchronized long getColdStartToNotificationMs() {
+        return coldStartToNotificationMs;
+    }
+
+    /**
+     * Records the cold start metric when the first notification of a headless process is posted.
+     */
+    static void onNotificationPosted() {
+        if (!headless) return;
+        synchronized (FirebasePluginCore.class) {
+            if (coldStartToNotificationMs >= 0) return;
+            coldStartToNotificationMs = SystemClock.elapsedRealtime() - getProcessStartElapsed();
+        }
+        FirebasePluginLog.i("Cold start to notification posted: %s ms", coldStartToNotificationMs);
+    }
+
+    private static long getProcessStartElapsed() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return Process.getStartElapsedRealtime();
+        }
+        return CLASS_LOAD_ELAPSED;
+    }
+}
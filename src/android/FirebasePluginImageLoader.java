@@ -0,0 +1,373 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.util.LruCache;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads notification images (notification_android_image) off the calling thread.
+ * <br/>
+ * Encoded image bytes are cached in memory (LRU bounded by bytes) and on disk (keyed by URL hash, LRU bounded by bytes).
+ * Disk entries are revalidated with conditional requests (ETag/Last-Modified) once their max-age has passed.
+ * Downloads are bounded by connect, read and total timeouts so a slow CDN cannot stall the messaging service.
+ */
+public class FirebasePluginImageLoader {
+
+    private static final String CACHE_DIR_NAME = "firebasex_images";
+    private static final String META_FILE_SUFFIX = ".meta";
+
+    private static final int MEMORY_CACHE_MAX_BYTES = 4 * 1024 * 1024;
+    private static final long DISK_CACHE_MAX_BYTES = 20 * 1024 * 1024;
+    private static final int MAX_IMAGE_BYTES = 5 * 1024 * 1024;
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 5000;
+    private static final long TOTAL_TIMEOUT_MS = 10000;
+
+    /** Used when the response has no Cache-Control max-age */
+    private static final long DEFAULT_MAX_AGE_MS = 24 * 60 * 60 * 1000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static FirebasePluginImageLoader instance;
+
+    private final File cacheDir;
+    private final LruCache<String, byte[]> memoryCache = new LruCache<String, byte[]>(MEMORY_CACHE_MAX_BYTES) {
+        @Override
+        protected int sizeOf(String key, byte[] value) {
+            return value.length;
+        }
+    };
+    private final Map<String, Future<byte[]>> inFlight = new HashMap<String, Future<byte[]>>();
+    private final ExecutorService executor;
+
+    public static synchronized FirebasePluginImageLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new FirebasePluginImageLoader(new File(context.getApplicationContext().getCacheDir(), CACHE_DIR_NAME));
+        }
+        return instance;
+    }
+
+    private FirebasePluginImageLoader(File cacheDir) {
+        this.cacheDir = cacheDir;
+        final AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "FirebasePluginImageLoader-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        this.executor = threadPoolExecutor;
+    }
+
+    /**
+     * Starts loading the image at the given URL in the background.
+     * Concurrent requests for the same URL share a single download.
+     * @param url
+     * @return future resolving to the encoded image bytes or null if the image could not be loaded
+     */
+    public Future<byte[]> load(final String url) {
+        synchronized (inFlight) {
+            Future<byte[]> existing = inFlight.get(url);
+            if (existing != null) return existing;
+
+            FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>() {
+                @Override
+                public byte[] call() {
+                    try {
+                        return loadSync(url);
+                    } finally {
+                        synchronized (inFlight) {
+                            inFlight.remove(url);
+                        }
+                    }
+                }
+            });
+            inFlight.put(url, task);
+            executor.execute(task);
+            return task;
+        }
+    }
+
+    /**
+     * Loads the image at the given URL, waiting at most timeoutMs.
+     * @param url
+     * @param timeoutMs
+     * @return the encoded image bytes or null if the image could not be loaded in time
+     */
+    public byte[] get(String url, long timeoutMs) {
+        byte[] cached = memoryCache.get(url);
+        if (cached != null) return cached;
+
+        Future<byte[]> future = load(url);
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            FirebasePluginLog.w("Timed out loading image after " + timeoutMs + "ms: " + url, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            FirebasePluginLog.e("Failed to load image: " + url, e.getCause());
+        }
+        return null;
+    }
+
+    private byte[] loadSync(String url) {
+        byte[] cached = memoryCache.get(url);
+        if (cached != null) return cached;
+
+        String key = hashKey(url);
+        File dataFile = new File(cacheDir, key);
+        File metaFile = new File(cacheDir, key + META_FILE_SUFFIX);
+        JSONObject meta = readMeta(metaFile);
+        boolean onDisk = meta != null && dataFile.exists();
+
+        if (onDisk && meta.optLong("expires", 0) > System.currentTimeMillis()) {
+            byte[] data = readFile(dataFile);
+            if (data != null) {
+                dataFile.setLastModified(System.currentTimeMillis());
+                memoryCache.put(url, data);
+                return data;
+            }
+            onDisk = false;
+        }
+
+        byte[] data = null;
+        try {
+            data = fetch(url, dataFile, metaFile, onDisk ? meta : null);
+        } catch (IOException e) {
+            FirebasePluginLog.w("Failed to download image: " + url, e);
+            if (onDisk) {
+                // Serve the stale copy rather than nothing
+                data = readFile(dataFile);
+            }
+        }
+        if (data != null) {
+            memoryCache.put(url, data);
+        }
+        return data;
+    }
+
+    /**
+     * Downloads the image, revalidating the cached copy if there is one.
+     */
+    private byte[] fetch(String url, File dataFile, File metaFile, JSONObject cachedMeta) throws IOException {
+        final long deadline = System.currentTimeMillis() + TOTAL_TIMEOUT_MS;
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            connection.setUseCaches(false);
+            connection.setDoInput(true);
+            if (cachedMeta != null) {
+                String etag = cachedMeta.optString("etag", null);
+                if (etag != null) connection.setRequestProperty("If-None-Match", etag);
+                long lastModified = cachedMeta.optLong("lastModified", 0);
+                if (lastModified > 0) connection.setIfModifiedSince(lastModified);
+            }
+            connection.connect();
+
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cachedMeta != null) {
+                byte[] data = readFile(dataFile);
+                if (data != null) {
+                    writeMeta(metaFile, connection, cachedMeta);
+                    dataFile.setLastModified(System.currentTimeMillis());
+                    return data;
+                }
+                throw new IOException("Cached image missing after 304 response");
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected HTTP status " + status);
+            }
+            if (connection.getContentLength() > MAX_IMAGE_BYTES) {
+                throw new IOException("Image too large: " + connection.getContentLength() + " bytes");
+            }
+
+            byte[] data = readFully(connection.getInputStream(), deadline);
+            writeToDisk(dataFile, data);
+            writeMeta(metaFile, connection, null);
+            trimDiskCache();
+            return data;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static byte[] readFully(InputStream input, long deadline) throws IOException {
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Image download exceeded total timeout of " + TOTAL_TIMEOUT_MS + "ms");
+                }
+                output.write(buffer, 0, read);
+                if (output.size() > MAX_IMAGE_BYTES) {
+                    throw new IOException("Image exceeds " + MAX_IMAGE_BYTES + " bytes");
+                }
+            }
+            return output.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+
+    /*
+     * Disk cache
+     */
+    private void writeToDisk(File dataFile, byte[] data) {
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) return;
+        File tmpFile = new File(dataFile.getPath() + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(tmpFile);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            if (!tmpFile.renameTo(dataFile)) {
+                tmpFile.delete();
+            }
+        } catch (IOException e) {
+            FirebasePluginLog.w("Failed to write image to disk cache", e);
+            tmpFile.delete();
+        }
+    }
+
+    private void writeMeta(File metaFile, HttpURLConnection connection, JSONObject previousMeta) {
+        try {
+            JSONObject meta = previousMeta != null ? previousMeta : new JSONObject();
+            String etag = connection.getHeaderField("ETag");
+            if (etag != null) meta.put("etag", etag);
+            long lastModified = connection.getLastModified();
+            if (lastModified > 0) meta.put("lastModified", lastModified);
+            meta.put("expires", System.currentTimeMillis() + getMaxAge(connection));
+
+            FileOutputStream out = new FileOutputStream(metaFile);
+            try {
+                out.write(meta.toString().getBytes(UTF_8));
+            } finally {
+                out.close();
+            }
+        } catch (IOException | JSONException e) {
+            FirebasePluginLog.w("Failed to write image cache metadata", e);
+        }
+    }
+
+    private static long getMaxAge(HttpURLConnection connection) {
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-cache") || directive.equals("no-store")) {
+                    return 0;
+                }
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        return Long.parseLong(directive.substring(8)) * 1000;
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        return DEFAULT_MAX_AGE_MS;
+    }
+
+    private static JSONObject readMeta(File metaFile) {
+        if (!metaFile.exists()) return null;
+        byte[] data = readFile(metaFile);
+        if (data == null) return null;
+        try {
+            return new JSONObject(new String(data, UTF_8));
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    private static byte[] readFile(File file) {
+        try {
+            FileInputStream input = new FileInputStream(file);
+            return readFully(input, Long.MAX_VALUE);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Evicts the least recently used images until the disk cache is within its size bound.
+     */
+    private synchronized void trimDiskCache() {
+        File[] files = cacheDir.listFiles();
+        if (files == null) return;
+
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= DISK_CACHE_MAX_BYTES) return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (total <= DISK_CACHE_MAX_BYTES) break;
+            if (file.getName().endsWith(META_FILE_SUFFIX)) continue;
+            total -= file.length();
+            file.delete();
+            File metaFile = new File(cacheDir, file.getName() + META_FILE_SUFFIX);
+            total -= metaFile.length();
+            metaFile.delete();
+        }
+    }
+
+    private static String hashKey(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+}
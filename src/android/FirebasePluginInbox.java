@@ -0,0 +1,248 @@
+package org.apache.cordova.firebase;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Bundle;
+import android.text.TextUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Optional persistent inbox of received messages, stored in an indexed SQLite database so the JS layer can
+ * page through the history instead of keeping it in memory.
+ * <br/>
+ * Enabled via the firebasex_message_inbox_enabled meta-data. Messages are written on a background thread and
+ * the oldest messages are removed once the configured maximum number of messages is exceeded.
+ */
+public class FirebasePluginInbox extends SQLiteOpenHelper {
+
+    protected static final String ENABLED_META_DATA = "firebasex_message_inbox_enabled";
+    protected static final String MAX_ENTRIES_META_DATA = "firebasex_message_inbox_max_entries";
+
+    private static final int DEFAULT_MAX_ENTRIES = 1000;
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+    /** Maximum number of variables per SQL statement; SQLite's default limit before 3.32 is 999 */
+    private static final int MAX_SQL_VARIABLES = 500;
+    /** Number of inserts after which the inbox is trimmed to its maximum size */
+    private static final int TRIM_INTERVAL = 50;
+
+    private static final String DATABASE_NAME = "firebasex_inbox.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE = "messages";
+    private static final String COLUMN_ID = "id";
+    private static final String COLUMN_MESSAGE_ID = "message_id";
+    private static final String COLUMN_RECEIVED_AT = "received_at";
+    private static final String COLUMN_CHANNEL_ID = "channel_id";
+    private static final String COLUMN_READ = "read";
+    private static final String COLUMN_PAYLOAD = "payload";
+
+    private static Boolean enabled;
+    private static FirebasePluginInbox instance;
+
+    private final int maxEntries;
+    private final ExecutorService writeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "FirebasePluginInbox");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private int insertsSinceTrim = 0;
+
+    public static synchronized boolean isEnabled(Context context) {
+        if (enabled == null) {
+            enabled = FirebasePlugin.getManifestMetaDataBoolean(context, ENABLED_META_DATA, false);
+        }
+        return enabled;
+    }
+
+    public static synchronized FirebasePluginInbox getInstance(Context context) {
+        if (instance == null) {
+            Context applicationContext = context.getApplicationContext();
+            instance = new FirebasePluginInbox(applicationContext,
+                    FirebasePlugin.getManifestMetaDataInt(applicationContext, MAX_ENTRIES_META_DATA, DEFAULT_MAX_ENTRIES));
+        }
+        return instance;
+    }
+
+    private FirebasePluginInbox(Context context, int maxEntries) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this.maxEntries = maxEntries > 0 ? maxEntries : DEFAULT_MAX_ENTRIES;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_MESSAGE_ID + " TEXT UNIQUE, "
+                + COLUMN_RECEIVED_AT + " INTEGER NOT NULL, "
+                + COLUMN_CHANNEL_ID + " TEXT, "
+                + COLUMN_READ + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_PAYLOAD + " TEXT NOT NULL)");
+        db.execSQL("CREATE INDEX " + TABLE + "_received_at ON " + TABLE + " (" + COLUMN_RECEIVED_AT + ")");
+        db.execSQL("CREATE INDEX " + TABLE + "_channel ON " + TABLE + " (" + COLUMN_CHANNEL_ID + ", " + COLUMN_ID + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    }
+
+    /**
+     * Stores the given message bundle in the background. Messages with an FCM message ID are only stored once.
+     * @param bundle
+     */
+    public void add(final Bundle bundle) {
+        final ContentValues values = new ContentValues();
+        try {
+            values.put(COLUMN_PAYLOAD, FirebasePlugin.bundleToJson(bundle).toString());
+        } catch (JSONException e) {
+            FirebasePlugin.handleExceptionWithoutContext(e);
+            return;
+        }
+        values.put(COLUMN_MESSAGE_ID, bundle.getString("google.message_id"));
+        values.put(COLUMN_RECEIVED_AT, System.currentTimeMillis());
+        values.put(COLUMN_CHANNEL_ID, bundle.getString("channel_id"));
+
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SQLiteDatabase db = getWritableDatabase();
+                    db.insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+                    if (++insertsSinceTrim >= TRIM_INTERVAL) {
+                        insertsSinceTrim = 0;
+                        db.execSQL("DELETE FROM " + TABLE + " WHERE " + COLUMN_ID + " <= (SELECT " + COLUMN_ID + " FROM " + TABLE
+                                + " ORDER BY " + COLUMN_ID + " DESC LIMIT 1 OFFSET " + maxEntries + ")");
+                    }
+                } catch (Exception e) {
+                    FirebasePlugin.handleExceptionWithoutContext(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a page of stored messages, newest first.
+     * @param options
+     *  - since: only messages received at or after this time (ms since epoch)
+     *  - beforeId: only messages with an ID lower than this, i.e. the ID of the last message of the previous page
+     *  - channel: only messages for this notification channel
+     *  - limit: page size
+     * @return {messages: [{id, messageId, receivedAt, channelId, read, message}], hasMore}
+     */
+    public JSONObject getMessages(JSONObject options) throws JSONException {
+        List<String> selection = new ArrayList<String>();
+        List<String> selectionArgs = new ArrayList<String>();
+        if (options.has("since")) {
+            selection.add(COLUMN_RECEIVED_AT + " >= ?");
+            selectionArgs.add(String.valueOf(options.getLong("since")));
+        }
+        if (options.has("beforeId")) {
+            selection.add(COLUMN_ID + " < ?");
+            selectionArgs.add(String.valueOf(options.getLong("beforeId")));
+        }
+        if (options.has("channel")) {
+            selection.add(COLUMN_CHANNEL_ID + " = ?");
+            selectionArgs.add(options.getString("channel"));
+        }
+        int limit = Math.max(1, Math.min(options.optInt("limit", DEFAULT_PAGE_SIZE), MAX_PAGE_SIZE));
+
+        JSONArray messages = new JSONArray();
+        boolean hasMore = false;
+        Cursor cursor = getReadableDatabase().query(TABLE,
+                new String[]{COLUMN_ID, COLUMN_MESSAGE_ID, COLUMN_RECEIVED_AT, COLUMN_CHANNEL_ID, COLUMN_READ, COLUMN_PAYLOAD},
+                selection.isEmpty() ? null : TextUtils.join(" AND ", selection),
+                selectionArgs.toArray(new String[0]),
+                null, null, COLUMN_ID + " DESC", String.valueOf(limit + 1));
+        try {
+            while (cursor.moveToNext()) {
+                if (messages.length() == limit) {
+                    hasMore = true;
+                    break;
+                }
+                JSONObject message = new JSONObject();
+                message.put("id", cursor.getLong(0));
+                message.put("messageId", cursor.isNull(1) ? JSONObject.NULL : cursor.getString(1));
+                message.put("receivedAt", cursor.getLong(2));
+                message.put("channelId", cursor.isNull(3) ? JSONObject.NULL : cursor.getString(3));
+                message.put("read", cursor.getInt(4) != 0);
+                message.put("message", new JSONObject(cursor.getString(5)));
+                messages.put(message);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        JSONObject page = new JSONObject();
+        page.put("messages", messages);
+        page.put("hasMore", hasMore);
+        return page;
+    }
+
+    /**
+     * Marks the messages with the given IDs as read.
+     * IDs are updated in chunks, as SQLite limits the number of variables per statement.
+     * @return number of messages updated
+     */
+    public int markRead(JSONArray ids) throws JSONException {
+        if (ids.length() == 0) return 0;
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_READ, 1);
+        SQLiteDatabase db = getWritableDatabase();
+        int updated = 0;
+        db.beginTransaction();
+        try {
+            for (int start = 0; start < ids.length(); start += MAX_SQL_VARIABLES) {
+                int end = Math.min(ids.length(), start + MAX_SQL_VARIABLES);
+                List<String> placeholders = new ArrayList<String>(end - start);
+                String[] args = new String[end - start];
+                for (int i = start; i < end; i++) {
+                    placeholders.add("?");
+                    args[i - start] = String.valueOf(ids.getLong(i));
+                }
+                updated += db.update(TABLE, values, COLUMN_ID + " IN (" + TextUtils.join(",", placeholders) + ")", args);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return updated;
+    }
+
+    /**
+     * Deletes stored messages.
+     * @param options
+     *  - receivedBefore: only messages received before this time (ms since epoch)
+     *  - readOnly: only messages marked as read
+     * @return number of messages deleted
+     */
+    public int purge(JSONObject options) throws JSONException {
+        List<String> selection = new ArrayList<String>();
+        List<String> selectionArgs = new ArrayList<String>();
+        if (options.has("receivedBefore")) {
+            selection.add(COLUMN_RECEIVED_AT + " < ?");
+            selectionArgs.add(String.valueOf(options.getLong("receivedBefore")));
+        }
+        if (options.optBoolean("readOnly", false)) {
+            selection.add(COLUMN_READ + " = 1");
+        }
+        return getWritableDatabase().delete(TABLE,
+                selection.isEmpty() ? "1" : TextUtils.join(" AND ", selection),
+                selectionArgs.toArray(new String[0]));
+    }
+
+}
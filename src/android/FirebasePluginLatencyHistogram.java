@@ -0,0 +1,48 @@
+package org.apache.cordova.firebase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+/**
+ * Latency distribution over the most recent samples.
+ * Percentiles are computed from a fixed-size window of samples when read, so recording is constant time.
+ */
+class FirebasePluginLatencyHistogram {
+
+    private static final int WINDOW_SIZE = 512;
+
+    private final long[] samples = new long[WINDOW_SIZE];
+    private int next = 0;
+    private int size = 0;
+    private long count = 0;
+    private long max = 0;
+
+    synchronized void record(long latencyMs) {
+        if (latencyMs < 0) return;
+        samples[next] = latencyMs;
+        next = (next + 1) % WINDOW_SIZE;
+        if (size < WINDOW_SIZE) size++;
+        count++;
+        if (latencyMs > max) max = latencyMs;
+    }
+
+    synchronized JSONObject toJson() throws JSONException {
+        long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        JSONObject json = new JSONObject();
+        json.put("count", count);
+        json.put("p50", percentile(sorted, 50));
+        json.put("p95", percentile(sorted, 95));
+        json.put("p99", percentile(sorted, 99));
+        json.put("max", max);
+        return json;
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
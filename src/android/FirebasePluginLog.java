@@ -0,0 +1,188 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+
+/**
+ * Level-gated logging facade for the plugin.
+ * <br/>
+ * Messages are only formatted if their level is enabled, so debug logging on the messaging hot path costs
+ * nothing in release builds and does not leak message payloads to logcat.
+ * Debug level is enabled for debuggable builds; verbose level (which includes message payloads) is enabled via
+ * <code>adb shell setprop log.tag.FirebasePlugin VERBOSE</code>.
+ * <br/>
+ * Optionally, messages at debug level and above are also kept in an in-memory ring buffer
+ * (see ANDROID_DIAGNOSTICS_BUFFER_SIZE) which can be retrieved via the getDiagnosticsLog plugin action.
+ */
+public final class FirebasePluginLog {
+
+    private static final String TAG = "FirebasePlugin";
+
+    protected static final String BUFFER_SIZE_META_DATA = "firebasex_diagnostics_buffer_size";
+
+    private static volatile boolean initialized = false;
+    private static volatile int logcatLevel = Log.INFO;
+    private static volatile int minLevel = Log.INFO;
+
+    private static RingBuffer buffer = null;
+
+    private FirebasePluginLog() {
+    }
+
+    /**
+     * Determines the enabled log levels. Only does work once per process.
+     * @param context
+     */
+    public static void initialize(Context context) {
+        if (initialized) return;
+        synchronized (FirebasePluginLog.class) {
+            if (initialized) return;
+
+            boolean debuggable = (context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+            int level = debuggable ? Log.DEBUG : Log.INFO;
+            if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                level = Log.VERBOSE;
+            } else if (Log.isLoggable(TAG, Log.DEBUG)) {
+                level = Math.min(level, Log.DEBUG);
+            }
+            logcatLevel = level;
+
+            int bufferSize = FirebasePlugin.getManifestMetaDataInt(context, BUFFER_SIZE_META_DATA, 0);
+            if (bufferSize > 0) {
+                buffer = new RingBuffer(bufferSize);
+            }
+            minLevel = buffer != null ? Math.min(logcatLevel, Log.DEBUG) : logcatLevel;
+            initialized = true;
+        }
+    }
+
+    public static boolean isLoggable(int level) {
+        return level >= minLevel;
+    }
+
+    public static void v(String message) {
+        if (isLoggable(Log.VERBOSE)) log(Log.VERBOSE, message, null);
+    }
+
+    public static void v(String format, Object... args) {
+        if (isLoggable(Log.VERBOSE)) log(Log.VERBOSE, format(format, args), null);
+    }
+
+    public static void d(String message) {
+        if (isLoggable(Log.DEBUG)) log(Log.DEBUG, message, null);
+    }
+
+    public static void d(String format, Object arg) {
+        if (isLoggable(Log.DEBUG)) log(Log.DEBUG, format(format, arg), null);
+    }
+
+    public static void d(String format, Object arg1, Object arg2) {
+        if (isLoggable(Log.DEBUG)) log(Log.DEBUG, format(format, arg1, arg2), null);
+    }
+
+    public static void d(String format, Object... args) {
+        if (isLoggable(Log.DEBUG)) log(Log.DEBUG, format(format, args), null);
+    }
+
+    public static void i(String message) {
+        if (isLoggable(Log.INFO)) log(Log.INFO, message, null);
+    }
+
+    public static void i(String format, Object... args) {
+        if (isLoggable(Log.INFO)) log(Log.INFO, format(format, args), null);
+    }
+
+    public static void w(String message, Throwable throwable) {
+        log(Log.WARN, message, throwable);
+    }
+
+    public static void e(String message, Throwable throwable) {
+        log(Log.ERROR, message, throwable);
+    }
+
+    /**
+     * Returns the contents of the ring buffer, oldest entry first.
+     * @return empty if the ring buffer is disabled
+     * @throws JSONException
+     */
+    public static JSONArray dump() throws JSONException {
+        RingBuffer ringBuffer = buffer;
+        if (ringBuffer == null) return new JSONArray();
+        return ringBuffer.toJson();
+    }
+
+    private static void log(int level, String message, Throwable throwable) {
+        if (level >= logcatLevel) {
+            if (throwable != null) {
+                Log.println(level, TAG, message + '\n' + Log.getStackTraceString(throwable));
+            } else {
+                Log.println(level, TAG, message);
+            }
+        }
+        RingBuffer ringBuffer = buffer;
+        if (ringBuffer != null && level >= Log.DEBUG) {
+            ringBuffer.add(level, throwable != null ? message + ": " + throwable : message);
+        }
+    }
+
+    private static String format(String format, Object... args) {
+        try {
+            return String.format(Locale.US, format, args);
+        } catch (RuntimeException e) {
+            return format;
+        }
+    }
+
+    private static final class RingBuffer {
+        private final long[] times;
+        private final int[] levels;
+        private final String[] messages;
+        private int next = 0;
+        private int count = 0;
+
+        RingBuffer(int size) {
+            times = new long[size];
+            levels = new int[size];
+            messages = new String[size];
+        }
+
+        synchronized void add(int level, String message) {
+            times[next] = System.currentTimeMillis();
+            levels[next] = level;
+            messages[next] = message;
+            next = (next + 1) % messages.length;
+            if (count < messages.length) count++;
+        }
+
+        synchronized JSONArray toJson() throws JSONException {
+            JSONArray entries = new JSONArray();
+            int start = (next - count + messages.length) % messages.length;
+            for (int i = 0; i < count; i++) {
+                int index = (start + i) % messages.length;
+                JSONObject entry = new JSONObject();
+                entry.put("time", times[index]);
+                entry.put("level", levelName(levels[index]));
+                entry.put("message", messages[index]);
+                entries.put(entry);
+            }
+            return entries;
+        }
+
+        private static String levelName(int level) {
+            switch (level) {
+                case Log.VERBOSE: return "verbose";
+                case Log.DEBUG: return "debug";
+                case Log.INFO: return "info";
+                case Log.WARN: return "warn";
+                default: return "error";
+            }
+        }
+    }
+}
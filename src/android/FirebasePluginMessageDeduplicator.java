@@ -0,0 +1,220 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Suppresses repeated deliveries of the same message to the JS layer.
+ * <br/>
+ * The same message can reach {@link FirebasePlugin#sendMessage(Bundle, Context)} from the messaging service,
+ * the notification tap receivers, onNewIntent and the launch intent. Deliveries are keyed on the FCM message ID
+ * (or the message id and sent time) plus the delivery phase (received, tapped or action chosen), and remembered in a bounded,
+ * time-windowed set which is persisted so duplicates are also detected across process restarts.
+ * The in-memory set is authoritative; new entries are appended to the file in batches on a background thread,
+ * so callers on the main thread (notification taps) don't wait for the disk.
+ */
+public class FirebasePluginMessageDeduplicator {
+
+    private static final String FILE_NAME = "firebasex_delivered_messages";
+
+    private static final int MAX_ENTRIES = 256;
+    private static final long WINDOW_MS = 60 * 60 * 1000;
+
+    private static final String PHASE_RECEIVE = "receive";
+    private static final String PHASE_TAP = "tap";
+    private static final String PHASE_ACTION = "action";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static FirebasePluginMessageDeduplicator instance;
+
+    private final File file;
+    // Insertion-ordered, i.e. by delivery time, so lookups don't reorder entries and eviction can stop at the first live entry
+    private final LinkedHashMap<String, Long> delivered = new LinkedHashMap<String, Long>(MAX_ENTRIES, 0.75f, false);
+    private int fileEntries = 0;
+    private long suppressedCount = 0;
+
+    /** Entries not yet written to the file */
+    private final List<String> unwritten = new ArrayList<String>();
+    private boolean writeScheduled = false;
+    private final ExecutorService writeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "FirebasePluginMessageDeduplicator");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final Runnable writeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            write();
+        }
+    };
+
+    public static synchronized FirebasePluginMessageDeduplicator getInstance(Context context) {
+        if (instance == null) {
+            instance = new FirebasePluginMessageDeduplicator(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+        }
+        return instance;
+    }
+
+    private FirebasePluginMessageDeduplicator(File file) {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * Checks whether the given message has already been delivered in the same phase and records it if not.
+     * @param bundle
+     * @return true if the message is a duplicate and should not be delivered again
+     */
+    public synchronized boolean isDuplicate(Bundle bundle) {
+        String key = getKey(bundle);
+        if (key == null) return false;
+
+        long now = System.currentTimeMillis();
+        Long deliveredAt = delivered.get(key);
+        if (deliveredAt != null && now - deliveredAt < WINDOW_MS) {
+            suppressedCount++;
+            FirebasePluginLog.d("Suppressed duplicate delivery: %s", key);
+            return true;
+        }
+
+        // Re-inserted so the map stays ordered by delivery time
+        delivered.remove(key);
+        delivered.put(key, now);
+        evict(now);
+        unwritten.add(now + " " + key + "\n");
+        if (!writeScheduled) {
+            writeScheduled = true;
+            writeExecutor.execute(writeRunnable);
+        }
+        return false;
+    }
+
+    public synchronized long getSuppressedCount() {
+        return suppressedCount;
+    }
+
+    /**
+     * Returns the de-duplication key of the given message, or null if it cannot be identified.
+     */
+    private static String getKey(Bundle bundle) {
+        String id = bundle.getString("google.message_id");
+        if (id == null) {
+            String messageId = bundle.getString("id");
+            String sentTime = bundle.getString("sent_time");
+            if (messageId == null || sentTime == null) return null;
+            id = messageId + "@" + sentTime;
+        }
+        if (bundle.containsKey(OnNotificationActionReceiver.ACTION_KEY)) {
+            return id + ":" + PHASE_ACTION + ":" + bundle.getString(OnNotificationActionReceiver.ACTION_KEY);
+        }
+        return id + ":" + (bundle.containsKey("tap") ? PHASE_TAP : PHASE_RECEIVE);
+    }
+
+    private void evict(long now) {
+        Iterator<Map.Entry<String, Long>> iterator = delivered.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (delivered.size() > MAX_ENTRIES || now - entry.getValue() >= WINDOW_MS) {
+                iterator.remove();
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void load() {
+        if (!file.exists()) return;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf(' ');
+                if (separator <= 0) continue;
+                try {
+                    long time = Long.parseLong(line.substring(0, separator));
+                    String key = line.substring(separator + 1);
+                    delivered.remove(key);
+                    delivered.put(key, time);
+                    fileEntries++;
+                } catch (NumberFormatException e) {
+                    // torn write
+                }
+            }
+        } catch (IOException e) {
+            FirebasePluginLog.w("Failed to read delivered messages", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        evict(System.currentTimeMillis());
+    }
+
+    /**
+     * Appends the unwritten entries to the file, compacting the file once it holds twice as many entries as the set.
+     * Runs on the write executor; the file is only accessed outside the lock.
+     */
+    private void write() {
+        List<String> lines;
+        boolean compact;
+        synchronized (this) {
+            writeScheduled = false;
+            compact = fileEntries >= MAX_ENTRIES * 2;
+            if (compact) {
+                lines = new ArrayList<String>(delivered.size());
+                for (Map.Entry<String, Long> entry : delivered.entrySet()) {
+                    lines.add(entry.getValue() + " " + entry.getKey() + "\n");
+                }
+                fileEntries = lines.size();
+            } else {
+                lines = new ArrayList<String>(unwritten);
+                fileEntries += lines.size();
+            }
+            unwritten.clear();
+        }
+        if (lines.isEmpty()) return;
+
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file, !compact), UTF_8);
+            for (String line : lines) {
+                writer.write(line);
+            }
+        } catch (IOException e) {
+            FirebasePluginLog.w("Failed to write delivered messages", e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import com.google.firebase.perf.FirebasePerformance;
+import com.google.firebase.perf.metrics.Trace;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Measures the latency of messages from the time they were sent until each stage of the messaging pipeline:
+ * received by the service, dispatched to the registered receivers, notification posted, queued and delivered to JS.
+ * <br/>
+ * Latencies are kept in histograms per message type and per priority lane.
+ * If enabled via the firebasex_messaging_performance_traces meta-data, each measurement is also reported
+ * as a Firebase Performance trace named fcm_message_[stage] with a latency_ms metric.
+ * <br/>
+ * Note that the sent time is set by the FCM backend, so latencies include any clock skew of the device.
+ */
+public final class FirebasePluginMessageLatency {
+
+    protected static final String PERFORMANCE_TRACES_META_DATA = "firebasex_messaging_performance_traces";
+
+    public static final String STAGE_RECEIVED = "received";
+    public static final String STAGE_DISPATCHED = "dispatched";
+    public static final String STAGE_POSTED = "posted";
+    public static final String STAGE_QUEUED = "queued";
+    public static final String STAGE_DELIVERED = "delivered";
+
+    private static final String[] STAGES = {STAGE_RECEIVED, STAGE_DISPATCHED, STAGE_POSTED, STAGE_QUEUED, STAGE_DELIVERED};
+
+    private static final String TRACE_PREFIX = "fcm_message_";
+
+    private static final Map<String, FirebasePluginLatencyHistogram> byType = new ConcurrentHashMap<String, FirebasePluginLatencyHistogram>();
+    private static final Map<String, FirebasePluginLatencyHistogram> byLane = new ConcurrentHashMap<String, FirebasePluginLatencyHistogram>();
+
+    private static volatile Boolean performanceTraces;
+
+    private FirebasePluginMessageLatency() {
+    }
+
+    /**
+     * Records the latency of a message from its sent time until now.
+     * @param context
+     * @param messageType "notification" or "data"
+     * @param highPriority whether the message belongs to the high priority lane
+     * @param stage one of the STAGE_ constants
+     * @param sentTime 0 if unknown, in which case nothing is recorded
+     */
+    public static void record(Context context, String messageType, boolean highPriority, String stage, long sentTime) {
+        if (sentTime <= 0) return;
+        long latencyMs = System.currentTimeMillis() - sentTime;
+        if (latencyMs < 0) return;
+
+        getHistogram(byType, (messageType != null ? messageType : NotificationSpec.MESSAGE_TYPE_DATA) + "." + stage).record(latencyMs);
+        getHistogram(byLane, (highPriority ? NotificationSpec.PRIORITY_HIGH : NotificationSpec.PRIORITY_NORMAL) + "." + stage).record(latencyMs);
+
+        if (isPerformanceTracesEnabled(context)) {
+            try {
+                Trace trace = FirebasePerformance.getInstance().newTrace(TRACE_PREFIX + stage);
+                trace.putAttribute("message_type", messageType != null ? messageType : NotificationSpec.MESSAGE_TYPE_DATA);
+                trace.putAttribute("priority", highPriority ? NotificationSpec.PRIORITY_HIGH : NotificationSpec.PRIORITY_NORMAL);
+                trace.start();
+                trace.putMetric("latency_ms", latencyMs);
+                trace.stop();
+            } catch (Exception e) {
+                FirebasePluginLog.w("Failed to report message latency trace", e);
+            }
+        }
+    }
+
+    /**
+     * Records the latency of the message represented by the given bundle from its sent time until now.
+     * @see #record(Context, String, boolean, String, long)
+     */
+    public static void record(Context context, Bundle bundle, String stage) {
+        if (bundle == null) return;
+        String sentTime = bundle.getString("sent_time");
+        if (sentTime == null) return;
+        try {
+            record(context, bundle.getString("messageType"), NotificationSpec.isHighPriority(bundle), stage, Long.parseLong(sentTime));
+        } catch (NumberFormatException e) {
+            // not a message sent via FCM
+        }
+    }
+
+    /**
+     * Returns the latency histograms keyed by message type, then stage.
+     */
+    static JSONObject getByTypeJson() throws JSONException {
+        return toJson(byType, new String[]{NotificationSpec.MESSAGE_TYPE_NOTIFICATION, NotificationSpec.MESSAGE_TYPE_DATA});
+    }
+
+    /**
+     * Returns the latency histograms keyed by priority lane, then stage.
+     */
+    static JSONObject getByLaneJson() throws JSONException {
+        return toJson(byLane, new String[]{NotificationSpec.PRIORITY_HIGH, NotificationSpec.PRIORITY_NORMAL});
+    }
+
+    private static JSONObject toJson(Map<String, FirebasePluginLatencyHistogram> histograms, String[] groups) throws JSONException {
+        JSONObject json = new JSONObject();
+        for (String group : groups) {
+            JSONObject groupJson = new JSONObject();
+            for (String stage : STAGES) {
+                groupJson.put(stage, getHistogram(histograms, group + "." + stage).toJson());
+            }
+            json.put(group, groupJson);
+        }
+        return json;
+    }
+
+    private static boolean isPerformanceTracesEnabled(Context context) {
+        if (performanceTraces == null) {
+            performanceTraces = FirebasePlugin.getManifestMetaDataBoolean(context, PERFORMANCE_TRACES_META_DATA, false);
+        }
+        return performanceTraces;
+    }
+
+    private static FirebasePluginLatencyHistogram getHistogram(Map<String, FirebasePluginLatencyHistogram> histograms, String key) {
+        FirebasePluginLatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            synchronized (histograms) {
+                histogram = histograms.get(key);
+                if (histogram == null) {
+                    histogram = new FirebasePluginLatencyHistogram();
+                    histograms.put(key, histogram);
+                }
+            }
+        }
+        return histogram;
+    }
+}
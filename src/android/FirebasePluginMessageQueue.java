@@ -0,0 +1,747 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded on-disk queue of message bundles which could not be delivered to the JS layer yet
+ * (no onMessageReceived callback registered or app in background).
+ * <br/>
+ * Bundles are appended to a journal file in the app's private files directory, one JSON record per line,
+ * so queued messages survive the process being killed between the FCM wakeup and the WebView starting.
+ * Writes are buffered and fsync'ed in batches on the queue's own thread: a burst of messages results in a single
+ * disk sync, and callers on the main thread don't wait for the disk.
+ * The journal is loaded on the queue's thread as well; messages enqueued meanwhile are added once it is loaded,
+ * while reads wait for it.
+ * When the configured number of entries or bytes is exceeded the oldest entries are evicted,
+ * normal priority entries first.
+ * <br/>
+ * Removals (evictions and delivered messages) are appended to the journal as tombstone records rather than
+ * rewriting it; the journal is compacted on {@link #sync()} once the removed records make up more than half of it.
+ * Drained messages stay in the journal until their delivery is confirmed via {@link #acknowledge(Collection)},
+ * so messages are not lost if the process dies while they are being delivered.
+ * <br/>
+ * High priority messages are kept in a separate lane which is drained before the normal lane.
+ * <br/>
+ * Stale messages are dropped when the queue is drained: messages whose TTL has passed since they were sent,
+ * and messages superseded by a newer message with the same collapse key.
+ */
+public class FirebasePluginMessageQueue {
+
+    private static final String JOURNAL_FILE_NAME = "firebasex_pending_messages.journal";
+
+    protected static final String MAX_ENTRIES_META_DATA = "firebasex_messaging_queue_max_entries";
+    protected static final String MAX_BYTES_META_DATA = "firebasex_messaging_queue_max_bytes";
+
+    private static final int DEFAULT_MAX_ENTRIES = 500;
+    private static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+
+    /** Delay after the first unsynced write before the journal is fsync'ed. */
+    private static final long SYNC_DELAY_MS = 250;
+    /** Number of unsynced writes which trigger an immediate sync. */
+    private static final int SYNC_BATCH_SIZE = 50;
+
+    /** Minimum size of removed records in the journal before it is compacted */
+    private static final long COMPACT_MIN_WASTE_BYTES = 64 * 1024;
+
+    // Journal record fields; not part of the bundle
+    /** Marks an entry of the high priority lane */
+    private static final String LANE_HIGH_KEY = "_firebasex_lane_high";
+    /** Sequence number identifying an entry in tombstone records */
+    private static final String SEQ_KEY = "_firebasex_seq";
+    /** Tombstone record: array of the sequence numbers of removed entries */
+    private static final String REMOVED_KEY = "_firebasex_removed";
+    /** Type tags of the non-string values, so numbers are restored with their original type */
+    private static final String TYPES_KEY = "_firebasex_types";
+
+    private static final String TYPE_INT = "i";
+    private static final String TYPE_LONG = "l";
+    private static final String TYPE_FLOAT = "f";
+    private static final String TYPE_DOUBLE = "d";
+    private static final String TYPE_BOOLEAN = "b";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static FirebasePluginMessageQueue instance;
+
+    private final File journalFile;
+    private final int maxEntries;
+    private final long maxBytes;
+    /** Collapse key FCM assigns to messages sent without one */
+    private final String defaultCollapseKey;
+
+    private final ArrayDeque<Entry> entries = new ArrayDeque<Entry>();
+    private final ArrayDeque<Entry> highPriorityEntries = new ArrayDeque<Entry>();
+    /** Drained entries awaiting acknowledgement, keyed by bundle identity */
+    private final Map<Bundle, Entry> inFlight = new IdentityHashMap<Bundle, Entry>();
+    /** Size of the queued (not in flight) entries */
+    private long totalBytes = 0;
+    /** Size of the journal, including removed records and tombstones */
+    private long journalBytes = 0;
+    /** Size of the live records in the journal: queued and in flight entries */
+    private long liveBytes = 0;
+    private long nextSeq = 0;
+
+    private FileOutputStream journalFileStream;
+    private BufferedOutputStream journalStream;
+    private int unsyncedWrites = 0;
+
+    private final ScheduledExecutorService syncExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "FirebasePluginMessageQueue");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private ScheduledFuture<?> pendingSync;
+    private final Runnable syncRunnable = new Runnable() {
+        @Override
+        public void run() {
+            syncNow();
+        }
+    };
+
+    /** Whether the journal has been loaded; until then, enqueued messages are held in {@link #enqueuedBeforeLoad} */
+    private boolean loaded = false;
+    private final List<Entry> enqueuedBeforeLoad = new ArrayList<Entry>();
+
+    private long expiredCount = 0;
+    private long collapsedCount = 0;
+
+    private static class Entry {
+        final long seq;
+        final boolean highPriority;
+        final Bundle bundle;
+        final byte[] record;
+
+        Entry(long seq, boolean highPriority, Bundle bundle, byte[] record) {
+            this.seq = seq;
+            this.highPriority = highPriority;
+            this.bundle = bundle;
+            this.record = record;
+        }
+    }
+
+    /**
+     * Returns the process-wide queue. Entries persisted by a previous process are loaded in the background on first access.
+     * @param context
+     * @return
+     */
+    public static synchronized FirebasePluginMessageQueue getInstance(Context context) {
+        if (instance == null) {
+            Context applicationContext = context.getApplicationContext();
+            instance = new FirebasePluginMessageQueue(
+                    new File(applicationContext.getFilesDir(), JOURNAL_FILE_NAME),
+                    FirebasePlugin.getManifestMetaDataInt(applicationContext, MAX_ENTRIES_META_DATA, DEFAULT_MAX_ENTRIES),
+                    FirebasePlugin.getManifestMetaDataInt(applicationContext, MAX_BYTES_META_DATA, DEFAULT_MAX_BYTES),
+                    applicationContext.getPackageName()
+            );
+        }
+        return instance;
+    }
+
+    private FirebasePluginMessageQueue(File journalFile, int maxEntries, long maxBytes, String defaultCollapseKey) {
+        this.journalFile = journalFile;
+        this.defaultCollapseKey = defaultCollapseKey;
+        this.maxEntries = maxEntries > 0 ? maxEntries : DEFAULT_MAX_ENTRIES;
+        this.maxBytes = maxBytes > 0 ? maxBytes : DEFAULT_MAX_BYTES;
+        syncExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    load();
+                } finally {
+                    onLoaded();
+                }
+            }
+        });
+    }
+
+    /**
+     * Marks the queue loaded and adds the messages enqueued while it was loading.
+     */
+    private synchronized void onLoaded() {
+        loaded = true;
+        for (Entry entry : enqueuedBeforeLoad) {
+            enqueue(entry.bundle, entry.highPriority);
+        }
+        enqueuedBeforeLoad.clear();
+        notifyAll();
+    }
+
+    /**
+     * Waits for the journal to be loaded. Must be called holding the lock.
+     */
+    private void awaitLoaded() {
+        boolean interrupted = false;
+        while (!loaded) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Appends the given bundle to the normal priority lane of the queue.
+     * @param bundle
+     */
+    public boolean enqueue(Bundle bundle) {
+        return enqueue(bundle, false);
+    }
+
+    /**
+     * Appends the given bundle to the queue.
+     * The write reaches the disk with the next batched sync.
+     * A drained bundle which could not be delivered is returned to its place in the queue instead, keeping its
+     * journal record.
+     * @param bundle
+     * @param highPriority whether to add the bundle to the high priority lane
+     * @return true if the bundle was newly queued, false if it was a drained bundle returned to the queue
+     */
+    public synchronized boolean enqueue(Bundle bundle, boolean highPriority) {
+        if (bundle == null) return false;
+        if (!loaded) {
+            enqueuedBeforeLoad.add(new Entry(-1, highPriority, bundle, null));
+            return true;
+        }
+        Entry drained = inFlight.remove(bundle);
+        if (drained != null) {
+            requeue(drained);
+            removeEvicted();
+            return false;
+        }
+
+        long seq = nextSeq++;
+        byte[] record;
+        try {
+            record = toRecord(seq, highPriority, bundle);
+        } catch (JSONException e) {
+            FirebasePlugin.handleExceptionWithoutContext(e);
+            return false;
+        }
+
+        Entry entry = new Entry(seq, highPriority, bundle, record);
+        (highPriority ? highPriorityEntries : entries).addLast(entry);
+        totalBytes += record.length;
+        liveBytes += record.length;
+        append(record);
+        removeEvicted();
+        return true;
+    }
+
+    /**
+     * Returns a drained entry to its lane, in sequence order.
+     */
+    private void requeue(Entry entry) {
+        ArrayDeque<Entry> lane = entry.highPriority ? highPriorityEntries : entries;
+        if (lane.isEmpty() || lane.peekLast().seq < entry.seq) {
+            lane.addLast(entry);
+        } else {
+            List<Entry> sorted = new ArrayList<Entry>(lane);
+            sorted.add(entry);
+            Collections.sort(sorted, SEQ_ORDER);
+            lane.clear();
+            lane.addAll(sorted);
+        }
+        totalBytes += entry.record.length;
+    }
+
+    private void removeEvicted() {
+        List<Entry> evicted = evictOldest();
+        if (!evicted.isEmpty()) {
+            remove(evicted);
+        }
+    }
+
+    /**
+     * Appends a record to the journal; it reaches the disk with the next batched sync.
+     */
+    private void append(byte[] record) {
+        try {
+            openJournalStream();
+            journalStream.write(record);
+            journalBytes += record.length;
+            unsyncedWrites++;
+        } catch (IOException e) {
+            FirebasePluginLog.e("Failed to append to pending queue journal", e);
+            closeJournalStream();
+            return;
+        }
+
+        scheduleSync(unsyncedWrites >= SYNC_BATCH_SIZE ? 0 : SYNC_DELAY_MS);
+    }
+
+    /**
+     * Schedules a sync on the queue's thread, unless one is already scheduled at least as soon.
+     */
+    private void scheduleSync(long delayMs) {
+        if (pendingSync != null) {
+            if (delayMs > 0 || pendingSync.getDelay(TimeUnit.MILLISECONDS) <= 0) return;
+            pendingSync.cancel(false);
+        }
+        pendingSync = syncExecutor.schedule(syncRunnable, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Removes and returns all queued bundles, high priority lane first, oldest first within each lane.
+     * The bundles must be passed to {@link #acknowledge(Collection)} once delivered.
+     * @return
+     */
+    public synchronized List<Bundle> drain() {
+        awaitLoaded();
+        List<Bundle> bundles = new ArrayList<Bundle>(size());
+        bundles.addAll(drain(true));
+        bundles.addAll(drain(false));
+        return bundles;
+    }
+
+    /**
+     * Removes and returns all bundles queued in the given lane, oldest first.
+     * Messages whose TTL has passed are dropped, and of messages sharing a collapse key only the newest is returned.
+     * <br/>
+     * The returned bundles are kept in the journal until passed to {@link #acknowledge(Collection)} once delivered,
+     * or returned to the queue via {@link #release(Collection)} if they could not be delivered.
+     * @param highPriority
+     * @return
+     */
+    public synchronized List<Bundle> drain(boolean highPriority) {
+        awaitLoaded();
+        ArrayDeque<Entry> lane = highPriority ? highPriorityEntries : entries;
+        List<Bundle> bundles = new ArrayList<Bundle>(lane.size());
+        if (lane.isEmpty()) return bundles;
+
+        List<Entry> drained = new ArrayList<Entry>(lane);
+        for (Entry entry : drained) {
+            bundles.add(entry.bundle);
+            totalBytes -= entry.record.length;
+        }
+        lane.clear();
+
+        List<Bundle> result = removeStale(bundles);
+        Set<Bundle> kept = Collections.newSetFromMap(new IdentityHashMap<Bundle, Boolean>());
+        kept.addAll(result);
+        List<Entry> stale = new ArrayList<Entry>();
+        for (Entry entry : drained) {
+            if (kept.contains(entry.bundle)) {
+                inFlight.put(entry.bundle, entry);
+            } else {
+                stale.add(entry);
+            }
+        }
+        if (!stale.isEmpty()) {
+            remove(stale);
+        }
+        return result;
+    }
+
+    /**
+     * Removes the given drained bundles from the journal once they have been delivered.
+     * @param bundles bundles returned by {@link #drain(boolean)}
+     */
+    public synchronized void acknowledge(Collection<Bundle> bundles) {
+        List<Entry> delivered = new ArrayList<Entry>(bundles.size());
+        for (Bundle bundle : bundles) {
+            Entry entry = inFlight.remove(bundle);
+            if (entry != null) {
+                delivered.add(entry);
+            }
+        }
+        if (!delivered.isEmpty()) {
+            remove(delivered);
+        }
+    }
+
+    /**
+     * Returns drained bundles which could not be delivered to the head of their lane.
+     * @param bundles bundles returned by {@link #drain(boolean)}
+     */
+    public synchronized void release(Collection<Bundle> bundles) {
+        List<Entry> released = new ArrayList<Entry>(bundles.size());
+        for (Bundle bundle : bundles) {
+            Entry entry = inFlight.remove(bundle);
+            if (entry != null) {
+                released.add(entry);
+            }
+        }
+        // Re-add newest first to restore the original order at the head of each lane
+        Collections.sort(released, SEQ_ORDER);
+        for (int i = released.size() - 1; i >= 0; i--) {
+            Entry entry = released.get(i);
+            (entry.highPriority ? highPriorityEntries : entries).addFirst(entry);
+            totalBytes += entry.record.length;
+        }
+    }
+
+    /**
+     * Appends a tombstone for the given entries, which must no longer be queued or in flight.
+     */
+    private void remove(List<Entry> removed) {
+        JSONArray seqs = new JSONArray();
+        for (Entry entry : removed) {
+            seqs.put(entry.seq);
+            liveBytes -= entry.record.length;
+        }
+        try {
+            JSONObject tombstone = new JSONObject();
+            tombstone.put(REMOVED_KEY, seqs);
+            append((tombstone.toString() + "\n").getBytes(UTF_8));
+        } catch (JSONException e) {
+            FirebasePlugin.handleExceptionWithoutContext(e);
+        }
+    }
+
+    /**
+     * Number of queued messages dropped because their TTL had passed.
+     */
+    public synchronized long getExpiredCount() {
+        return expiredCount;
+    }
+
+    /**
+     * Number of queued messages dropped because a newer message with the same collapse key was queued.
+     */
+    public synchronized long getCollapsedCount() {
+        return collapsedCount;
+    }
+
+    /**
+     * Removes expired messages and all but the newest message of each collapse key from the given list.
+     * Notification taps and actions are always kept.
+     */
+    private List<Bundle> removeStale(List<Bundle> bundles) {
+        long now = System.currentTimeMillis();
+        Set<String> collapseKeys = new HashSet<String>();
+        List<Bundle> result = new ArrayList<Bundle>(bundles.size());
+        // Newest first so the first message seen for a collapse key is the one kept
+        for (int i = bundles.size() - 1; i >= 0; i--) {
+            Bundle bundle = bundles.get(i);
+            if (bundle.containsKey("tap")) {
+                result.add(bundle);
+                continue;
+            }
+            if (isExpired(bundle, now)) {
+                expiredCount++;
+                continue;
+            }
+            String collapseKey = bundle.getString("collapse_key");
+            if (collapseKey != null && !collapseKey.equals(defaultCollapseKey) && !collapseKeys.add(collapseKey)) {
+                collapsedCount++;
+                continue;
+            }
+            result.add(bundle);
+        }
+        Collections.reverse(result);
+        if (result.size() < bundles.size()) {
+            FirebasePluginLog.d("Dropped %s stale queued messages", bundles.size() - result.size());
+        }
+        return result;
+    }
+
+    private static boolean isExpired(Bundle bundle, long now) {
+        try {
+            String sentTime = bundle.getString("sent_time");
+            String ttl = bundle.getString("ttl");
+            if (sentTime == null || ttl == null) return false;
+            long ttlMs = Long.parseLong(ttl) * 1000;
+            // A TTL of 0 (deliver now or never) applied to FCM delivery, which has already happened
+            return ttlMs > 0 && Long.parseLong(sentTime) + ttlMs < now;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public synchronized int size() {
+        awaitLoaded();
+        return entries.size() + highPriorityEntries.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        awaitLoaded();
+        return entries.isEmpty() && highPriorityEntries.isEmpty();
+    }
+
+    private int count() {
+        return entries.size() + highPriorityEntries.size();
+    }
+
+    /**
+     * Flushes buffered writes and fsyncs the journal on the queue's thread as soon as possible, without waiting for it.
+     */
+    public synchronized void sync() {
+        scheduleSync(0);
+    }
+
+    /**
+     * Flushes buffered writes and fsyncs the journal, compacting it if removed records make up most of it.
+     */
+    private synchronized void syncNow() {
+        pendingSync = null;
+        if (journalBytes - liveBytes > Math.max(COMPACT_MIN_WASTE_BYTES, liveBytes)) {
+            rewriteJournal();
+            return;
+        }
+        if (journalStream == null || unsyncedWrites == 0) return;
+        try {
+            journalStream.flush();
+            journalFileStream.getFD().sync();
+        } catch (IOException e) {
+            FirebasePluginLog.e("Failed to sync pending queue journal", e);
+            closeJournalStream();
+        }
+        unsyncedWrites = 0;
+    }
+
+    /**
+     * Evicts the oldest entries until the queue is within its bounds, from the normal priority lane first.
+     * @return the evicted entries
+     */
+    private List<Entry> evictOldest() {
+        List<Entry> evicted = new ArrayList<Entry>();
+        while (count() > 1 && (count() > maxEntries || totalBytes > maxBytes)) {
+            Entry entry = !entries.isEmpty() ? entries.removeFirst() : highPriorityEntries.removeFirst();
+            totalBytes -= entry.record.length;
+            evicted.add(entry);
+        }
+        if (!evicted.isEmpty()) {
+            FirebasePluginLog.w("Pending message queue full: evicted " + evicted.size() + " oldest message(s)", null);
+        }
+        return evicted;
+    }
+
+    private static final Comparator<Entry> SEQ_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+        }
+    };
+
+    /**
+     * Reads entries persisted by a previous process, including entries which were in flight when it died.
+     * A torn last record (process killed mid-write) is skipped and the journal compacted.
+     * Runs on the queue's thread without holding the lock: the queue state and the journal are not accessed by other
+     * threads until {@link #onLoaded()}.
+     */
+    private void load() {
+        if (!journalFile.exists()) return;
+
+        boolean compact = false;
+        Map<Long, Entry> loaded = new LinkedHashMap<Long, Entry>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                journalBytes += (line + "\n").getBytes(UTF_8).length;
+                try {
+                    JSONObject json = new JSONObject(line);
+                    JSONArray removed = json.optJSONArray(REMOVED_KEY);
+                    if (removed != null) {
+                        for (int i = 0; i < removed.length(); i++) {
+                            loaded.remove(removed.getLong(i));
+                        }
+                        continue;
+                    }
+                    // Every record carries its sequence number and type tags; a record without them is corrupt
+                    long seq = json.getLong(SEQ_KEY);
+                    JSONObject types = json.getJSONObject(TYPES_KEY);
+                    json.remove(SEQ_KEY);
+                    json.remove(TYPES_KEY);
+                    nextSeq = Math.max(nextSeq, seq + 1);
+                    boolean highPriority = json.optBoolean(LANE_HIGH_KEY, false);
+                    json.remove(LANE_HIGH_KEY);
+                    Bundle bundle = jsonToBundle(json, types);
+                    byte[] record = toRecord(seq, highPriority, bundle);
+                    loaded.put(seq, new Entry(seq, highPriority, bundle, record));
+                } catch (JSONException e) {
+                    FirebasePluginLog.w("Skipping corrupt record in pending queue journal", null);
+                    compact = true;
+                }
+            }
+        } catch (IOException e) {
+            FirebasePluginLog.e("Failed to read pending queue journal", e);
+            compact = true;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        for (Entry entry : loaded.values()) {
+            (entry.highPriority ? highPriorityEntries : entries).addLast(entry);
+            totalBytes += entry.record.length;
+            liveBytes += entry.record.length;
+        }
+        List<Entry> evicted = evictOldest();
+        for (Entry entry : evicted) {
+            liveBytes -= entry.record.length;
+        }
+        if (!evicted.isEmpty() || compact || journalBytes - liveBytes > COMPACT_MIN_WASTE_BYTES) {
+            rewriteJournal();
+        }
+        if (count() > 0) {
+            FirebasePluginLog.d("Loaded %s pending message(s) from disk", count());
+        }
+    }
+
+    /**
+     * Atomically replaces the journal with the current in-memory entries, dropping removed records and tombstones.
+     */
+    private void rewriteJournal() {
+        closeJournalStream();
+        List<Entry> live = new ArrayList<Entry>(inFlight.values());
+        Collections.sort(live, SEQ_ORDER);
+        live.addAll(highPriorityEntries);
+        live.addAll(entries);
+
+        File tmpFile = new File(journalFile.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmpFile, false);
+            BufferedOutputStream buffered = new BufferedOutputStream(out);
+            long bytes = 0;
+            for (Entry entry : live) {
+                buffered.write(entry.record);
+                bytes += entry.record.length;
+            }
+            buffered.flush();
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(journalFile)) {
+                throw new IOException("Failed to rename " + tmpFile.getName());
+            }
+            journalBytes = bytes;
+            liveBytes = bytes;
+        } catch (IOException e) {
+            FirebasePluginLog.e("Failed to rewrite pending queue journal", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private void openJournalStream() throws IOException {
+        if (journalStream != null) return;
+        journalFileStream = new FileOutputStream(journalFile, true);
+        journalStream = new BufferedOutputStream(journalFileStream);
+    }
+
+    private void closeJournalStream() {
+        if (pendingSync != null) {
+            pendingSync.cancel(false);
+            pendingSync = null;
+        }
+        if (journalStream != null) {
+            try {
+                journalStream.flush();
+                journalFileStream.getFD().sync();
+                journalStream.close();
+            } catch (IOException e) {
+                FirebasePluginLog.e("Failed to close pending queue journal", e);
+            }
+        }
+        journalStream = null;
+        journalFileStream = null;
+        unsyncedWrites = 0;
+    }
+
+    /*
+     * Serialization
+     */
+    /**
+     * Serializes a journal record: the bundle as serialized for the JS layer by {@link FirebasePlugin#bundleToJson(Bundle)},
+     * plus the type tags of its non-string values.
+     */
+    private static byte[] toRecord(long seq, boolean highPriority, Bundle bundle) throws JSONException {
+        JSONObject json = FirebasePlugin.bundleToJson(bundle);
+        JSONObject types = new JSONObject();
+        for (String key : bundle.keySet()) {
+            Object value = bundle.get(key);
+            if (value instanceof Integer) {
+                types.put(key, TYPE_INT);
+            } else if (value instanceof Long) {
+                types.put(key, TYPE_LONG);
+            } else if (value instanceof Float) {
+                types.put(key, TYPE_FLOAT);
+            } else if (value instanceof Double) {
+                types.put(key, TYPE_DOUBLE);
+            } else if (value instanceof Boolean) {
+                types.put(key, TYPE_BOOLEAN);
+            }
+        }
+        json.put(TYPES_KEY, types);
+        json.put(SEQ_KEY, seq);
+        if (highPriority) {
+            json.put(LANE_HIGH_KEY, true);
+        }
+        return (json.toString() + "\n").getBytes(UTF_8);
+    }
+
+    /**
+     * Deserializes the bundle of a journal record.
+     * @param types type tags of the non-string values
+     */
+    protected static Bundle jsonToBundle(JSONObject json, JSONObject types) throws JSONException {
+        Bundle bundle = new Bundle();
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            String type = types.optString(key, null);
+            if (type != null) {
+                switch (type) {
+                    case TYPE_INT: bundle.putInt(key, json.getInt(key)); continue;
+                    case TYPE_LONG: bundle.putLong(key, json.getLong(key)); continue;
+                    case TYPE_FLOAT: bundle.putFloat(key, (float) json.getDouble(key)); continue;
+                    case TYPE_DOUBLE: bundle.putDouble(key, json.getDouble(key)); continue;
+                    case TYPE_BOOLEAN: bundle.putBoolean(key, json.getBoolean(key)); continue;
+                }
+            }
+            bundle.putString(key, json.get(key).toString());
+        }
+        return bundle;
+    }
+}
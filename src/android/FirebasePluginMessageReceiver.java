@@ -11,6 +11,26 @@ public abstract class FirebasePluginMessageReceiver {
         FirebasePluginMessageReceiverManager.register(this);
     }
 
+    /**
+     * Subclasses may override this to declare which messages they are interested in.
+     * The receiver is then only called for matching messages.
+     * Called once when the receiver is registered.
+     * @return null (the default) to receive all messages
+     */
+    public FirebasePluginMessageReceiverCriteria getCriteria() {
+        return null;
+    }
+
+    /**
+     * Receivers are called in descending order of priority, receivers with equal priority in the order they were registered.
+     * Once a receiver handles a message, receivers further down the order are not called for that message.
+     * Called once when the receiver is registered.
+     * @return 0 by default
+     */
+    public int getPriority() {
+        return 0;
+    }
+
     /**
      * Concrete subclasses should override this and return true if they handle the received message.
      *
@@ -50,4 +70,17 @@ public abstract class FirebasePluginMessageReceiver {
     public boolean sendMessage(Bundle bundle, Context context) {
         return sendMessage(bundle);
     }
+
+    /**
+     * Subclasses may override this and return true if they handle the given background notification action
+     * (declared by notification_android_actions). Called without starting the app UI.
+     *
+     * @param actionId ID of the chosen action
+     * @param bundle message bundle of the notification, with the action ID in "action"
+     * @param context
+     * @return true if the action was handled by the receiver so should not be passed to the JS layer. False by default.
+     */
+    public boolean onNotificationAction(String actionId, Bundle bundle, Context context) {
+        return false;
+    }
 }
@@ -0,0 +1,51 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import com.google.firebase.messaging.RemoteMessage;
+
+/**
+ * Receiver which processes messages off the FCM service thread.
+ * <br/>
+ * {@link #onMessageReceivedAsync(RemoteMessage, Context)} runs on a small bounded executor shared by all async receivers,
+ * in parallel with other async receivers and with the plugin's own message handling. An async receiver therefore
+ * cannot claim a message: use a synchronous {@link FirebasePluginMessageReceiver} for that.
+ * <br/>
+ * Processing is interrupted once {@link #getTimeoutMs()} has elapsed. Note that the process may be terminated
+ * shortly after the message has been handled if the app is in the background, so work should be kept short.
+ */
+public abstract class FirebasePluginMessageReceiverAsync extends FirebasePluginMessageReceiver {
+
+    public static final long DEFAULT_TIMEOUT_MS = 10000;
+
+    /**
+     * Called on a background thread for each received message matching this receiver's criteria.
+     * @param remoteMessage
+     * @param context
+     */
+    public abstract void onMessageReceivedAsync(RemoteMessage remoteMessage, Context context);
+
+    /**
+     * Maximum time {@link #onMessageReceivedAsync(RemoteMessage, Context)} may take before it is interrupted.
+     * @return {@link #DEFAULT_TIMEOUT_MS} by default
+     */
+    public long getTimeoutMs() {
+        return DEFAULT_TIMEOUT_MS;
+    }
+
+    @Override
+    public final boolean onMessageReceived(RemoteMessage remoteMessage) {
+        return false;
+    }
+
+    @Override
+    public final boolean onMessageReceived(RemoteMessage remoteMessage, Context context) {
+        return false;
+    }
+
+    @Override
+    public boolean sendMessage(Bundle bundle) {
+        return false;
+    }
+}
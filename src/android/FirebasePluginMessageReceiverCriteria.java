@@ -0,0 +1,112 @@
+package org.apache.cordova.firebase;
+
+import android.os.Bundle;
+
+import com.google.firebase.messaging.RemoteMessage;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Describes which messages a {@link FirebasePluginMessageReceiver} is interested in.
+ * <br/>
+ * A message matches if it matches every specified criterion; a criterion with several values matches
+ * if any of the values match. Criteria which have not been specified match any message.
+ * <pre>
+ * new FirebasePluginMessageReceiverCriteria()
+ *     .topic("chat")
+ *     .dataKey("chat_message_id");
+ * </pre>
+ */
+public final class FirebasePluginMessageReceiverCriteria {
+
+    private static final String TOPIC_PREFIX = "/topics/";
+
+    private final Set<String> from = new HashSet<String>();
+    private final Set<String> dataKeys = new HashSet<String>();
+    private String messageType;
+
+    /**
+     * Matches messages sent by the given sender ID.
+     * @param senderId
+     * @return this
+     */
+    public FirebasePluginMessageReceiverCriteria from(String senderId) {
+        from.add(senderId);
+        return this;
+    }
+
+    /**
+     * Matches messages sent to the given topic.
+     * @param topic topic name, without the "/topics/" prefix
+     * @return this
+     */
+    public FirebasePluginMessageReceiverCriteria topic(String topic) {
+        from.add(TOPIC_PREFIX + topic);
+        return this;
+    }
+
+    /**
+     * Matches messages whose data payload contains the given key.
+     * @param key
+     * @return this
+     */
+    public FirebasePluginMessageReceiverCriteria dataKey(String key) {
+        dataKeys.add(key);
+        return this;
+    }
+
+    /**
+     * Matches messages of the given type.
+     * @param messageType {@link NotificationSpec#MESSAGE_TYPE_NOTIFICATION} or {@link NotificationSpec#MESSAGE_TYPE_DATA}
+     * @return this
+     */
+    public FirebasePluginMessageReceiverCriteria messageType(String messageType) {
+        this.messageType = messageType;
+        return this;
+    }
+
+    Set<String> getFrom() {
+        return Collections.unmodifiableSet(from);
+    }
+
+    Set<String> getDataKeys() {
+        return Collections.unmodifiableSet(dataKeys);
+    }
+
+    String getMessageType() {
+        return messageType;
+    }
+
+    boolean matches(RemoteMessage remoteMessage) {
+        String type = remoteMessage.getNotification() != null ? NotificationSpec.MESSAGE_TYPE_NOTIFICATION : NotificationSpec.MESSAGE_TYPE_DATA;
+        return matches(remoteMessage.getFrom(), type, remoteMessage.getData());
+    }
+
+    boolean matches(Bundle bundle) {
+        if (messageType != null && !messageType.equals(bundle.getString("messageType"))) return false;
+        if (!from.isEmpty() && !from.contains(bundle.getString("from"))) return false;
+        if (!dataKeys.isEmpty()) {
+            for (String key : dataKeys) {
+                if (bundle.containsKey(key)) return true;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private boolean matches(String messageFrom, String type, Map<String, String> data) {
+        if (messageType != null && !messageType.equals(type)) return false;
+        if (!from.isEmpty() && !from.contains(messageFrom)) return false;
+        if (!dataKeys.isEmpty()) {
+            if (data == null) return false;
+            for (String key : dataKeys) {
+                if (data.containsKey(key)) return true;
+            }
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,179 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.google.firebase.messaging.RemoteMessage;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link FirebasePluginMessageReceiverAsync} receivers on a bounded executor with per-receiver timeouts,
+ * and records timing metrics per receiver class for both synchronous and async receivers.
+ */
+class FirebasePluginMessageReceiverExecutor {
+
+    private static final int THREADS = 2;
+    private static final int QUEUE_SIZE = 64;
+
+    private static final ThreadFactory threadFactory = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "FirebasePluginMessageReceiver");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), threadFactory);
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private static final ScheduledExecutorService timeoutExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+
+    private static final ConcurrentHashMap<String, ReceiverStats> stats = new ConcurrentHashMap<String, ReceiverStats>();
+
+    private static class ReceiverStats {
+        long calls = 0;
+        long totalMs = 0;
+        long maxMs = 0;
+        long timeouts = 0;
+        long errors = 0;
+        long rejected = 0;
+
+        synchronized void record(long durationMs) {
+            calls++;
+            totalMs += durationMs;
+            if (durationMs > maxMs) maxMs = durationMs;
+        }
+
+        synchronized JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("calls", calls);
+            json.put("averageMs", calls > 0 ? totalMs / calls : 0);
+            json.put("maxMs", maxMs);
+            json.put("timeouts", timeouts);
+            json.put("errors", errors);
+            json.put("rejected", rejected);
+            return json;
+        }
+    }
+
+    private FirebasePluginMessageReceiverExecutor() {
+    }
+
+    /**
+     * Calls the given synchronous receiver on the current thread, recording its duration.
+     * @return true if the receiver claimed the message
+     */
+    static boolean dispatch(FirebasePluginMessageReceiver receiver, RemoteMessage remoteMessage, Context context) {
+        long start = SystemClock.elapsedRealtime();
+        try {
+            return receiver.onMessageReceived(remoteMessage, context);
+        } finally {
+            getStats(receiver).record(SystemClock.elapsedRealtime() - start);
+        }
+    }
+
+    /**
+     * Schedules the given async receiver to process the message on the receiver executor.
+     * Its timeout starts once it runs, so time spent queued behind other receivers doesn't count against it.
+     */
+    static void dispatchAsync(final FirebasePluginMessageReceiverAsync receiver, final RemoteMessage remoteMessage, final Context context) {
+        final ReceiverStats receiverStats = getStats(receiver);
+        try {
+            executor.execute(new ReceiverTask(receiver, receiverStats, new Runnable() {
+                @Override
+                public void run() {
+                    long start = SystemClock.elapsedRealtime();
+                    try {
+                        receiver.onMessageReceivedAsync(remoteMessage, context);
+                    } catch (Exception e) {
+                        synchronized (receiverStats) {
+                            receiverStats.errors++;
+                        }
+                        FirebasePlugin.handleExceptionWithoutContext(e);
+                    } finally {
+                        receiverStats.record(SystemClock.elapsedRealtime() - start);
+                    }
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            synchronized (receiverStats) {
+                receiverStats.rejected++;
+            }
+            FirebasePluginLog.w("Receiver queue full, dropped message for " + receiver.getClass().getName(), e);
+        }
+    }
+
+    /**
+     * Async receiver call which is cancelled (interrupted) if it is still running after the receiver's timeout.
+     */
+    private static class ReceiverTask extends FutureTask<Void> {
+        private final FirebasePluginMessageReceiverAsync receiver;
+        private final ReceiverStats receiverStats;
+
+        ReceiverTask(FirebasePluginMessageReceiverAsync receiver, ReceiverStats receiverStats, Runnable call) {
+            super(call, null);
+            this.receiver = receiver;
+            this.receiverStats = receiverStats;
+        }
+
+        @Override
+        public void run() {
+            ScheduledFuture<?> timeout = timeoutExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (cancel(true)) {
+                        synchronized (receiverStats) {
+                            receiverStats.timeouts++;
+                        }
+                        FirebasePluginLog.i("Receiver %s timed out", receiver.getClass().getName());
+                    }
+                }
+            }, receiver.getTimeoutMs(), TimeUnit.MILLISECONDS);
+            try {
+                super.run();
+            } finally {
+                timeout.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Returns the timing metrics keyed by receiver class name.
+     */
+    static JSONObject getStatsJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<String, ReceiverStats> entry : stats.entrySet()) {
+            json.put(entry.getKey(), entry.getValue().toJson());
+        }
+        return json;
+    }
+
+    private static ReceiverStats getStats(FirebasePluginMessageReceiver receiver) {
+        String className = receiver.getClass().getName();
+        ReceiverStats receiverStats = stats.get(className);
+        if (receiverStats == null) {
+            receiverStats = new ReceiverStats();
+            ReceiverStats existing = stats.putIfAbsent(className, receiverStats);
+            if (existing != null) receiverStats = existing;
+        }
+        return receiverStats;
+    }
+}
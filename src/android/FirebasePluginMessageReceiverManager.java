@@ -3,23 +3,23 @@ package org.apache.cordova.firebase;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Bundle;
-import android.util.Log;
 
 import com.google.firebase.messaging.RemoteMessage;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 public class FirebasePluginMessageReceiverManager {
 
-    private static final String TAG = "FirebasePlugin";
-
     private static List<FirebasePluginMessageReceiver> receivers = new ArrayList<FirebasePluginMessageReceiver>();
 
     /**
@@ -36,28 +36,52 @@ public class FirebasePluginMessageReceiverManager {
     }
 
     public static boolean onMessageReceived(RemoteMessage remoteMessage, Context context) {
-        boolean handled = false;
-        for (FirebasePluginMessageReceiver receiver : getReceivers(context)) {
-            boolean wasHandled = receiver.onMessageReceived(remoteMessage, context);
-            if (wasHandled) {
-                handled = true;
+        tryInitializeStaticReceivers(context);
+        for (FirebasePluginMessageReceiver receiver : getDispatchIndex().getReceivers(remoteMessage)) {
+            if (receiver instanceof FirebasePluginMessageReceiverAsync) {
+                // Runs in parallel, cannot claim the message
+                FirebasePluginMessageReceiverExecutor.dispatchAsync((FirebasePluginMessageReceiverAsync) receiver, remoteMessage, context);
+            } else if (FirebasePluginMessageReceiverExecutor.dispatch(receiver, remoteMessage, context)) {
+                // Claimed => don't pass it on to lower priority receivers
+                return true;
             }
         }
-
-        return handled;
+        return false;
     }
 
     public static boolean sendMessage(Bundle bundle, Context context) {
-            boolean handled = false;
-            for (FirebasePluginMessageReceiver receiver : getReceivers(context)) {
-                boolean wasHandled = receiver.sendMessage(bundle, context);
-                if (wasHandled) {
-                    handled = true;
-                }
+        tryInitializeStaticReceivers(context);
+        for (FirebasePluginMessageReceiver receiver : getDispatchIndex().getReceivers(bundle)) {
+            if (receiver.sendMessage(bundle, context)) {
+                return true;
             }
+        }
+        return false;
+    }
 
-            return handled;
+    public static boolean onNotificationAction(String actionId, Bundle bundle, Context context) {
+        tryInitializeStaticReceivers(context);
+        for (FirebasePluginMessageReceiver receiver : getDispatchIndex().getReceivers(bundle)) {
+            if (receiver.onNotificationAction(actionId, bundle, context)) {
+                return true;
+            }
         }
+        return false;
+    }
+
+    /**
+     * Whether a receiver of the given class has been registered.
+     * @param receiverClass
+     * @return
+     */
+    static boolean isRegistered(Class<?> receiverClass) {
+        for (FirebasePluginMessageReceiver receiver : receivers) {
+            if (receiverClass.equals(receiver.getClass())) {
+                return true;
+            }
+        }
+        return false;
+    }
 
     /**
      * Adds the given receiver both to our in-memory list of receivers
@@ -82,6 +106,7 @@ public class FirebasePluginMessageReceiverManager {
             List<FirebasePluginMessageReceiver> receiversNew = new ArrayList<>(receivers);
             receiversNew.add(receiver);
             receivers = receiversNew;
+            dispatchIndex = null;
         }
 
         //register static receiver if applicable
@@ -89,15 +114,183 @@ public class FirebasePluginMessageReceiverManager {
     }
 
     /**
-     * Returns a list of all registered receivers.
-     * @param context
+     * Returns the dispatch index for the current list of receivers, building it if required.
+     * Built lazily rather than on registration as receivers register themselves in their super constructor,
+     * i.e. before their criteria may be available.
      * @return
      */
-    private static Collection<FirebasePluginMessageReceiver> getReceivers(Context context) {
-        tryInitializeStaticReceivers(context);
-        return receivers;
+    private static DispatchIndex getDispatchIndex() {
+        DispatchIndex index = dispatchIndex;
+        if (index == null) {
+            synchronized (FirebasePluginMessageReceiverManager.class) {
+                index = dispatchIndex;
+                if (index == null) {
+                    index = new DispatchIndex(receivers);
+                    dispatchIndex = index;
+                }
+            }
+        }
+        return index;
     }
 
+    //<editor-fold desc="Dispatch index">
+
+    private static volatile DispatchIndex dispatchIndex;
+
+    /**
+     * Immutable index of the registered receivers by their {@link FirebasePluginMessageReceiverCriteria}.
+     * Each receiver with criteria is indexed under its most selective criterion (sender/topic, then data key,
+     * then message type); receivers without criteria go into a catch-all bucket.
+     * The receivers found for a message are checked against their full criteria and returned in dispatch order.
+     */
+    private static final class DispatchIndex {
+
+        private static final class Entry {
+            final FirebasePluginMessageReceiver receiver;
+            final FirebasePluginMessageReceiverCriteria criteria;
+            final int rank;
+
+            Entry(FirebasePluginMessageReceiver receiver, FirebasePluginMessageReceiverCriteria criteria, int rank) {
+                this.receiver = receiver;
+                this.criteria = criteria;
+                this.rank = rank;
+            }
+        }
+
+        private static final Comparator<Entry> RANK_ORDER = new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return a.rank < b.rank ? -1 : (a.rank == b.rank ? 0 : 1);
+            }
+        };
+
+        private final List<Entry> catchAll = new ArrayList<>();
+        private final Map<String, List<Entry>> byFrom = new HashMap<>();
+        private final Map<String, List<Entry>> byDataKey = new HashMap<>();
+        private final Map<String, List<Entry>> byMessageType = new HashMap<>();
+
+        /** Dispatch list when no receiver declares criteria */
+        private final List<FirebasePluginMessageReceiver> catchAllReceivers;
+
+        DispatchIndex(List<FirebasePluginMessageReceiver> receivers) {
+            final int[] priorities = new int[receivers.size()];
+            Integer[] order = new Integer[receivers.size()];
+            for (int i = 0; i < receivers.size(); i++) {
+                priorities[i] = receivers.get(i).getPriority();
+                order[i] = i;
+            }
+            // Descending priority; the sort is stable so registration order is kept for equal priorities
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return priorities[b] < priorities[a] ? -1 : (priorities[b] == priorities[a] ? 0 : 1);
+                }
+            });
+
+            for (int rank = 0; rank < order.length; rank++) {
+                FirebasePluginMessageReceiver receiver = receivers.get(order[rank]);
+                FirebasePluginMessageReceiverCriteria criteria = receiver.getCriteria();
+                Entry entry = new Entry(receiver, criteria, rank);
+                if (criteria == null) {
+                    catchAll.add(entry);
+                } else if (!criteria.getFrom().isEmpty()) {
+                    for (String from : criteria.getFrom()) {
+                        addTo(byFrom, from, entry);
+                    }
+                } else if (!criteria.getDataKeys().isEmpty()) {
+                    for (String key : criteria.getDataKeys()) {
+                        addTo(byDataKey, key, entry);
+                    }
+                } else if (criteria.getMessageType() != null) {
+                    addTo(byMessageType, criteria.getMessageType(), entry);
+                } else {
+                    catchAll.add(entry);
+                }
+            }
+
+            if (byFrom.isEmpty() && byDataKey.isEmpty() && byMessageType.isEmpty()) {
+                List<FirebasePluginMessageReceiver> list = new ArrayList<>(catchAll.size());
+                for (Entry entry : catchAll) {
+                    list.add(entry.receiver);
+                }
+                catchAllReceivers = Collections.unmodifiableList(list);
+            } else {
+                catchAllReceivers = null;
+            }
+        }
+
+        List<FirebasePluginMessageReceiver> getReceivers(RemoteMessage remoteMessage) {
+            if (catchAllReceivers != null) return catchAllReceivers;
+
+            String messageType = remoteMessage.getNotification() != null ? NotificationSpec.MESSAGE_TYPE_NOTIFICATION : NotificationSpec.MESSAGE_TYPE_DATA;
+            List<FirebasePluginMessageReceiver> result = new ArrayList<>();
+            for (Entry entry : getCandidates(remoteMessage.getFrom(), messageType, remoteMessage.getData().keySet())) {
+                if (entry.criteria == null || entry.criteria.matches(remoteMessage)) {
+                    result.add(entry.receiver);
+                }
+            }
+            return result;
+        }
+
+        List<FirebasePluginMessageReceiver> getReceivers(Bundle bundle) {
+            if (catchAllReceivers != null) return catchAllReceivers;
+
+            List<FirebasePluginMessageReceiver> result = new ArrayList<>();
+            for (Entry entry : getCandidates(bundle.getString("from"), bundle.getString("messageType"), bundle.keySet())) {
+                if (entry.criteria == null || entry.criteria.matches(bundle)) {
+                    result.add(entry.receiver);
+                }
+            }
+            return result;
+        }
+
+        private List<Entry> getCandidates(String from, String messageType, Set<String> keys) {
+            List<Entry> candidates = new ArrayList<>(catchAll);
+            addAll(candidates, byFrom, from);
+            addAll(candidates, byMessageType, messageType);
+            if (!byDataKey.isEmpty()) {
+                if (keys.size() <= byDataKey.size()) {
+                    for (String key : keys) {
+                        addAll(candidates, byDataKey, key);
+                    }
+                } else {
+                    for (Map.Entry<String, List<Entry>> indexed : byDataKey.entrySet()) {
+                        if (keys.contains(indexed.getKey())) {
+                            candidates.addAll(indexed.getValue());
+                        }
+                    }
+                }
+            }
+            Collections.sort(candidates, RANK_ORDER);
+
+            // A receiver indexed under several data keys may have been found more than once
+            for (int i = candidates.size() - 1; i > 0; i--) {
+                if (candidates.get(i) == candidates.get(i - 1)) {
+                    candidates.remove(i);
+                }
+            }
+            return candidates;
+        }
+
+        private static void addTo(Map<String, List<Entry>> index, String key, Entry entry) {
+            List<Entry> entries = index.get(key);
+            if (entries == null) {
+                entries = new ArrayList<>();
+                index.put(key, entries);
+            }
+            entries.add(entry);
+        }
+
+        private static void addAll(List<Entry> candidates, Map<String, List<Entry>> index, String key) {
+            if (key == null) return;
+            List<Entry> entries = index.get(key);
+            if (entries != null) {
+                candidates.addAll(entries);
+            }
+        }
+    }
+    //</editor-fold>
+
     //<editor-fold desc="Initialization and static receivers">
 
     private static final String PREFERENCES_TAG = "FirebasePlugin";
@@ -109,15 +302,27 @@ public class FirebasePluginMessageReceiverManager {
     private static SharedPreferences staticReceiversPreferences;
 
     /**
-     * Loads a list of registered static receivers classes ({@link FirebasePluginMessageReceiverStatic})
+     * Creates the static receivers ({@link FirebasePluginMessageReceiverStatic}) known at build time
+     * ({@link FirebasePluginStaticReceiverRegistry}).
+     * If enabled, then loads the persisted list of static receiver classes registered at runtime
      * and instantiates one receiver per class.
      */
     private static void initializeStaticReceivers(Context context) {
 
+        //receivers known at build time: created by direct constructor calls
+        FirebasePluginStaticReceiverRegistry.createReceivers();
+        if (!FirebasePluginStaticReceiverRegistry.PERSISTED_FALLBACK) {
+            return;
+        }
+
         Collection<FirebasePluginMessageReceiver> staticReceives = new ArrayList<>();
         Set<Class<? extends FirebasePluginMessageReceiver>> receiverClassesNew = new HashSet<>();
 
         for (Class<? extends FirebasePluginMessageReceiver> receiverClass : loadStaticReceivers(context)) {
+            if (isGeneratedReceiver(receiverClass)) {
+                //already created above. drop it from the persisted list
+                continue;
+            }
 
             //check if we already have such a receiver
             boolean receiverExists = false;
@@ -140,7 +345,7 @@ public class FirebasePluginMessageReceiverManager {
                 }
                 catch (Exception e) {
                     //some other reflection related error => drop the class
-                    Log.e(TAG, String.format("Could not instantiate static receiver of type %s. Missing a public zero argument constructor?", receiverClass.getSimpleName()), e);
+                    FirebasePluginLog.e("Could not instantiate static receiver of type " + receiverClass.getSimpleName() + ". Missing a public zero argument constructor?", e);
                     continue;
                 }
             }
@@ -153,7 +358,7 @@ public class FirebasePluginMessageReceiverManager {
         //=> we check on the current list of receivers to be extra neat
         //this also causes us to save receivers that had been attached before #initialize had been called
         for (FirebasePluginMessageReceiver receiver : receivers) {
-            if (receiver instanceof FirebasePluginMessageReceiverStatic) {
+            if (receiver instanceof FirebasePluginMessageReceiverStatic && !isGeneratedReceiver(receiver.getClass())) {
                 receiverClassesNew.add(receiver.getClass());
             }
         }
@@ -173,7 +378,7 @@ public class FirebasePluginMessageReceiverManager {
             synchronized (FirebasePluginMessageReceiverManager.class) {
                 if (!staticReceiversInitialized) {
 
-                    if (getStaticReceiversPreferences(context) == null) {
+                    if (FirebasePluginStaticReceiverRegistry.PERSISTED_FALLBACK && getStaticReceiversPreferences(context) == null) {
                         //cannot initialize yet
                         return;
                     }
@@ -216,7 +421,7 @@ public class FirebasePluginMessageReceiverManager {
                 classes.add((Class<? extends FirebasePluginMessageReceiver>) receiverClass);
             }
             catch (ClassNotFoundException e) {
-                Log.i(TAG, String.format(Locale.US, "Static receiver class does not exist anymore: %s", className), e);
+                FirebasePluginLog.i("Static receiver class does not exist anymore: %s", className);
             }
         }
 
@@ -238,6 +443,11 @@ public class FirebasePluginMessageReceiverManager {
             classNames.add(receiver.getName());
         }
 
+        if (classNames.equals(preferences.getStringSet(PREFERENCES_KEY_STATIC_RECEIVERS, Collections.emptySet()))) {
+            //unchanged => avoid the write
+            return;
+        }
+
         preferences.edit()
             .putStringSet(PREFERENCES_KEY_STATIC_RECEIVERS, classNames)
             .apply();
@@ -253,6 +463,8 @@ public class FirebasePluginMessageReceiverManager {
     private static void addStaticReceiver(Context context, FirebasePluginMessageReceiver receiver) {
         if (!(receiver instanceof FirebasePluginMessageReceiverStatic))
             return;
+        if (!FirebasePluginStaticReceiverRegistry.PERSISTED_FALLBACK || isGeneratedReceiver(receiver.getClass()))
+            return;
 
         if (!staticReceiversInitialized) {
             if (staticReceiversInitializing) {
@@ -279,6 +491,21 @@ public class FirebasePluginMessageReceiverManager {
         }
     }
 
+    /**
+     * Whether the given class is created by the build-time generated {@link FirebasePluginStaticReceiverRegistry}
+     * and therefore doesn't need to be persisted.
+     * @param receiverClass
+     * @return
+     */
+    private static boolean isGeneratedReceiver(Class<?> receiverClass) {
+        for (Class<?> generatedClass : FirebasePluginStaticReceiverRegistry.RECEIVER_CLASSES) {
+            if (generatedClass.equals(receiverClass)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Returns the shared preferences where our list of static receiver classes is stored.
      * @param context
@@ -0,0 +1,55 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Collects the counters and metrics of the messaging pipeline for the getMessagingStats plugin action.
+ */
+public final class FirebasePluginMessagingStats {
+
+    private FirebasePluginMessagingStats() {
+    }
+
+    public static JSONObject toJson(Context context) throws JSONException {
+        JSONObject stats = new JSONObject();
+
+        JSONObject delivery = new JSONObject();
+        delivery.put("duplicatesSuppressed", FirebasePluginMessageDeduplicator.getInstance(context).getSuppressedCount());
+        FirebasePluginMessageQueue queue = FirebasePluginMessageQueue.getInstance(context);
+        delivery.put("queued", queue.size());
+        delivery.put("expired", queue.getExpiredCount());
+        delivery.put("collapsed", queue.getCollapsedCount());
+        stats.put("delivery", delivery);
+
+        // Not created just to read their counters: that would start their threads
+        FirebasePluginNotificationRenderer renderer = FirebasePluginNotificationRenderer.peekInstance();
+        FirebasePluginNotificationRenderWorker renderWorker = FirebasePluginNotificationRenderWorker.peekInstance();
+        JSONObject notifications = new JSONObject();
+        notifications.put("posted", renderer != null ? renderer.getPostedCount() : 0);
+        notifications.put("coalesced", renderer != null ? renderer.getCoalescedCount() : 0);
+        notifications.put("deferred", renderer != null ? renderer.getDeferredCount() : 0);
+        notifications.put("grouped", renderer != null ? renderer.getGroupedCount() : 0);
+        notifications.put("updated", renderer != null ? renderer.getUpdatedCount() : 0);
+        notifications.put("textFallback", renderWorker != null ? renderWorker.getTextFallbackCount() : 0);
+        notifications.put("lastBitmapBytes", FirebasePluginBitmapDecoder.getLastMessageBitmapBytes());
+        notifications.put("peakBitmapBytes", FirebasePluginBitmapDecoder.getPeakMessageBitmapBytes());
+        stats.put("notifications", notifications);
+
+        stats.put("receivers", FirebasePluginMessageReceiverExecutor.getStatsJson());
+
+        stats.put("latency", FirebasePluginMessageLatency.getByTypeJson());
+        stats.put("lanes", FirebasePluginMessageLatency.getByLaneJson());
+
+        JSONObject startup = new JSONObject();
+        startup.put("headless", FirebasePluginCore.isHeadless());
+        startup.put("coreInitializationMs", FirebasePluginCore.getInitializationMs());
+        startup.put("coldStartToNotificationMs", FirebasePluginCore.getColdStartToNotificationMs());
+        stats.put("startup", startup);
+
+        return stats;
+    }
+
+}
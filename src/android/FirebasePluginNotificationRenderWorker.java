@@ -0,0 +1,537 @@
+package org.apache.cordova.firebase;
+
+import android.app.PendingIntent;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.text.Html;
+import android.text.Spanned;
+
+import androidx.core.app.NotificationCompat;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Builds notifications for received messages on a dedicated thread, so
+ * {@link FirebasePluginMessagingService#onMessageReceived} returns without waiting for HTML parsing,
+ * icon decoding or image downloads.
+ * <br/>
+ * Each request has a hard deadline: if the notification image has not been loaded by then, the notification is
+ * posted text-only. The image download keeps running in the background so it is cached for later messages.
+ * A partial wake lock keeps the device awake until the notification is handed to the {@link FirebasePluginNotificationRenderer}.
+ * <br/>
+ * Update messages (notification_android_update) for a notification the renderer still has the builder of are applied
+ * to that builder instead (see {@link #applyUpdate}), without rebuilding the notification or reloading its image.
+ */
+public class FirebasePluginNotificationRenderWorker {
+
+    /** Interval at which pending image loads are checked */
+    private static final long IMAGE_POLL_INTERVAL_MS = 50;
+    /** Maximum time until the completion callback of a job is called, below the 60s limit of background broadcasts */
+    private static final long DONE_TIMEOUT_MS = 50 * 1000;
+
+    private static final String WAKE_LOCK_TAG = "firebasex:notification_render";
+
+    private static FirebasePluginNotificationRenderWorker instance;
+
+    private final Context context;
+    private final Handler handler;
+    private final PowerManager powerManager;
+
+    private volatile long renderedCount = 0;
+    private volatile long textFallbackCount = 0;
+
+    public static synchronized FirebasePluginNotificationRenderWorker getInstance(Context context) {
+        if (instance == null) {
+            instance = new FirebasePluginNotificationRenderWorker(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the instance if it has been created, without creating it (and starting its thread).
+     */
+    static synchronized FirebasePluginNotificationRenderWorker peekInstance() {
+        return instance;
+    }
+
+    private FirebasePluginNotificationRenderWorker(Context context) {
+        this.context = context;
+        this.powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+
+        HandlerThread thread = new HandlerThread("FirebasePluginNotificationRenderWorker");
+        thread.start();
+        this.handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Renders and posts the notification for the given message.
+     * @param spec
+     * @param bundle message bundle passed to the notification's content intent; copied, so the caller may keep using it
+     * @param deadlineMs maximum time until the notification is posted, with or without its image
+     */
+    public void submit(NotificationSpec spec, Bundle bundle, long deadlineMs) {
+        submit(spec, bundle, deadlineMs, null);
+    }
+
+    /**
+     * Renders and posts the notification for the given message.
+     * @param spec
+     * @param bundle message bundle passed to the notification's content intent; copied, so the caller may keep using it
+     * @param deadlineMs maximum time until the notification is posted, with or without its image
+     * @param onDone called once the renderer passed the notification to the OS, i.e. after any coalescing or rate
+     * limiting delay, or once it failed to render or post; may be null
+     */
+    public void submit(NotificationSpec spec, Bundle bundle, long deadlineMs, Runnable onDone) {
+        // Copied on the caller's thread: the caller goes on to pass the bundle to receivers, which may modify it
+        final Job job = new Job(spec, new Bundle(bundle), SystemClock.uptimeMillis() + deadlineMs, onDone);
+        job.acquireWakeLock(deadlineMs);
+        if (onDone != null) {
+            // Last resort in case the job never completes, well ahead of the limit of a broadcast kept alive by goAsync()
+            handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    job.finish();
+                }
+            }, DONE_TIMEOUT_MS);
+        }
+        final Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                job.start();
+            }
+        };
+        if (spec.update && spec.tag != null) {
+            FirebasePluginNotificationRenderer.getInstance(context).update(spec, job.onPosted, new FirebasePluginNotificationRenderer.UpdateListener() {
+                @Override
+                public void onUpdate(boolean updated) {
+                    if (!updated) {
+                        // Not displayed by this process yet: render it in full
+                        handler.post(runnable);
+                    }
+                }
+            });
+        } else if (spec.highPriority) {
+            handler.postAtFrontOfQueue(runnable);
+        } else {
+            handler.post(runnable);
+        }
+    }
+
+    public long getRenderedCount() {
+        return renderedCount;
+    }
+
+    /**
+     * Number of notifications posted without their image because it could not be loaded before the deadline.
+     */
+    public long getTextFallbackCount() {
+        return textFallbackCount;
+    }
+
+    /**
+     * A single notification being rendered. Only accessed on the worker thread, other than {@link #finish()}.
+     */
+    private class Job {
+        final NotificationSpec spec;
+        final Bundle bundle;
+        final long deadline;
+        Runnable onDone;
+        PowerManager.WakeLock wakeLock;
+
+        String channelId;
+        int smallIcon;
+        NotificationCompat.Builder builder;
+        long bitmapBytes;
+        Future<byte[]> image;
+
+        /** Passed to the renderer to finish the job once the notification is posted */
+        final Runnable onPosted = new Runnable() {
+            @Override
+            public void run() {
+                finish();
+            }
+        };
+
+        Job(NotificationSpec spec, Bundle bundle, long deadline, Runnable onDone) {
+            this.spec = spec;
+            this.bundle = bundle;
+            this.deadline = deadline;
+            this.onDone = onDone;
+        }
+
+        void acquireWakeLock(long timeoutMs) {
+            try {
+                wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WAKE_LOCK_TAG);
+                wakeLock.setReferenceCounted(false);
+                wakeLock.acquire(timeoutMs + IMAGE_POLL_INTERVAL_MS);
+            } catch (RuntimeException e) {
+                FirebasePluginLog.w("Failed to acquire render wake lock", e);
+                wakeLock = null;
+            }
+        }
+
+        void start() {
+            try {
+                channelId = resolveChannelId(spec);
+                smallIcon = getSmallIcon(context, spec);
+                // Start the download before building the rest of the notification
+                if (spec.image != null) {
+                    FirebasePluginLog.d("Large icon: image=%s", spec.image);
+                    image = FirebasePluginImageLoader.getInstance(context).load(spec.image);
+                }
+                Bitmap largeIcon = getLargeIcon(context, spec);
+                bitmapBytes = FirebasePluginBitmapDecoder.getByteCount(largeIcon);
+                builder = createNotificationBuilder(context, spec, bundle, channelId, smallIcon, largeIcon);
+            } catch (Exception e) {
+                FirebasePlugin.handleExceptionWithoutContext(e);
+                finish();
+                return;
+            }
+            awaitImage();
+        }
+
+        void awaitImage() {
+            if (image != null && !image.isDone()) {
+                if (SystemClock.uptimeMillis() < deadline) {
+                    handler.postDelayed(new Runnable() {
+                        @Override
+                        public void run() {
+                            awaitImage();
+                        }
+                    }, IMAGE_POLL_INTERVAL_MS);
+                    return;
+                }
+                textFallbackCount++;
+                FirebasePluginLog.i("Image not loaded by render deadline, posting text-only notification: %s", spec.image);
+            } else if (image != null) {
+                try {
+                    bitmapBytes += applyImage(context, builder, spec, image.get());
+                } catch (ExecutionException e) {
+                    FirebasePluginLog.e("Failed to load image: " + spec.image, e.getCause());
+                } catch (Exception e) {
+                    FirebasePlugin.handleExceptionWithoutContext(e);
+                }
+            }
+            post();
+        }
+
+        void post() {
+            try {
+                FirebasePluginBitmapDecoder.recordMessageBitmapBytes(bitmapBytes);
+                FirebasePluginLog.d("Notification bitmap memory: %s bytes", bitmapBytes);
+
+                // Display notification: posted by the renderer, which coalesces and rate limits bursts
+                // other than high priority messages; the job is finished once it is actually posted
+                FirebasePluginNotificationRenderer.getInstance(context).post(spec.tag, spec.id.hashCode(), channelId, builder, smallIcon,
+                        getSummaryLine(spec), spec.messageType, spec.highPriority, spec.sentTime, onPosted);
+                renderedCount++;
+            } catch (RuntimeException e) {
+                FirebasePlugin.handleExceptionWithoutContext(e);
+                finish();
+            }
+        }
+
+        /**
+         * Releases the wake lock and notifies the submitter. Only does work once.
+         * Called on the worker thread, or on the renderer thread once the notification is posted.
+         */
+        synchronized void finish() {
+            if (wakeLock != null && wakeLock.isHeld()) {
+                wakeLock.release();
+            }
+            if (onDone != null) {
+                Runnable callback = onDone;
+                onDone = null;
+                try {
+                    callback.run();
+                } catch (Exception e) {
+                    FirebasePlugin.handleExceptionWithoutContext(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the ID of the channel the given notification is posted to: the requested channel if it exists, else the default channel.
+     */
+    public static String resolveChannelId(NotificationSpec spec) {
+        String channelId = spec.channelId;
+        if(channelId == null || !FirebasePlugin.channelExists(channelId)){
+            channelId = FirebasePlugin.defaultChannelId;
+        }
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O){
+            FirebasePluginLog.d("Channel ID: %s", channelId);
+        }
+        return channelId;
+    }
+
+    public static int getSmallIcon(Context context, NotificationSpec spec) {
+        int customSmallIconResID = 0;
+        if(spec.icon != null){
+            customSmallIconResID = FirebasePluginResources.getIdentifier(context, spec.icon, FirebasePluginResources.TYPE_DRAWABLE);
+        }
+        if (customSmallIconResID != 0) {
+            FirebasePluginLog.d("Small icon: custom=%s", spec.icon);
+            return customSmallIconResID;
+        }
+        int defaultSmallIconResID = FirebasePluginResources.getIdentifier(context, FirebasePluginMessagingService.defaultSmallIconName, FirebasePluginResources.TYPE_DRAWABLE);
+        if (defaultSmallIconResID != 0) {
+            FirebasePluginLog.d("Small icon: default=%s", FirebasePluginMessagingService.defaultSmallIconName);
+            return defaultSmallIconResID;
+        }
+        FirebasePluginLog.d("Small icon: application");
+        return context.getApplicationInfo().icon;
+    }
+
+    /**
+     * Returns the line representing the given message in a notification group summary.
+     */
+    public static CharSequence getSummaryLine(NotificationSpec spec) {
+        CharSequence body = spec.bodyHtml != null ? fromHtml(spec.body) : spec.body;
+        if (spec.title == null) return body;
+        if (body == null) return spec.title;
+        return spec.title + ": " + body;
+    }
+
+    /**
+     * Decodes the custom or default large icon of the given notification.
+     * @return null if there is none
+     */
+    public static Bitmap getLargeIcon(Context context, NotificationSpec spec) {
+        if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.LOLLIPOP) return null;
+
+        int defaultLargeIconResID = FirebasePluginResources.getIdentifier(context, FirebasePluginMessagingService.defaultLargeIconName, FirebasePluginResources.TYPE_DRAWABLE);
+        int customLargeIconResID = 0;
+        if(spec.icon != null){
+            customLargeIconResID = FirebasePluginResources.getIdentifier(context, spec.icon+"_large", FirebasePluginResources.TYPE_DRAWABLE);
+        }
+
+        int largeIconResID;
+        if (customLargeIconResID != 0) {
+            largeIconResID = customLargeIconResID;
+            FirebasePluginLog.d("Large icon: custom=%s", spec.icon);
+        }else if (defaultLargeIconResID != 0) {
+            FirebasePluginLog.d("Large icon: default=%s", FirebasePluginMessagingService.defaultLargeIconName);
+            largeIconResID = defaultLargeIconResID;
+        }else{
+            return null;
+        }
+        int[] largeIconSize = FirebasePluginBitmapDecoder.getLargeIconSize(context);
+        return FirebasePluginBitmapDecoder.decodeResource(context.getResources(), largeIconResID, largeIconSize[0], largeIconSize[1]);
+    }
+
+    /**
+     * Creates the builder of the given notification without its image (see {@link #applyImage}).
+     * @param largeIcon may be null
+     */
+    public static NotificationCompat.Builder createNotificationBuilder(Context context, NotificationSpec spec, Bundle bundle, String channelId, int smallIcon, Bitmap largeIcon) {
+        PendingIntent pendingIntent = createOpenIntent(context, new Intent().putExtras(bundle), spec.id.hashCode());
+
+        NotificationCompat.Builder notificationBuilder = new NotificationCompat.Builder(context, channelId);
+        notificationBuilder
+                .setContentTitle(spec.title)
+                .setAutoCancel(true)
+                .setContentIntent(pendingIntent);
+
+        if(spec.bodyHtml != null) {
+            Spanned body = fromHtml(spec.body);
+            notificationBuilder
+                .setContentText(body)
+                .setStyle(new NotificationCompat.BigTextStyle().bigText(body));
+        }else{
+            notificationBuilder
+                .setContentText(spec.body)
+                .setStyle(new NotificationCompat.BigTextStyle().bigText(spec.body));
+        }
+
+
+        // On Android O+ the sound/lights/vibration are determined by the channel ID
+        if(Build.VERSION.SDK_INT < Build.VERSION_CODES.O){
+            // Sound
+            if (spec.sound == null) {
+                FirebasePluginLog.d("Sound: none");
+            }else if (spec.sound.equals("default")) {
+                notificationBuilder.setSound(RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION));
+                FirebasePluginLog.d("Sound: default");
+            }else{
+                Uri soundPath = Uri.parse(ContentResolver.SCHEME_ANDROID_RESOURCE + "://" + context.getPackageName() + "/raw/" + spec.sound);
+                FirebasePluginLog.d("Sound: custom=%s; path=%s", spec.sound, soundPath);
+                notificationBuilder.setSound(soundPath);
+            }
+
+            // Light
+            if (spec.lightSettings != null) {
+                notificationBuilder.setLights(spec.lightSettings[0], spec.lightSettings[1], spec.lightSettings[2]);
+                FirebasePluginLog.d("Lights: %s", spec.light);
+            }
+
+            // Vibrate
+            if (spec.vibratePattern != null){
+                notificationBuilder.setVibrate(spec.vibratePattern);
+                FirebasePluginLog.d("Vibrate: %s", spec.vibrate);
+            }
+        }
+
+
+        // Icon
+        notificationBuilder.setSmallIcon(smallIcon);
+        if (largeIcon != null) {
+            notificationBuilder.setLargeIcon(largeIcon);
+        }
+
+        // Action buttons
+        for (NotificationSpec.Action action : spec.actions) {
+            notificationBuilder.addAction(createAction(context, spec, bundle, action));
+            FirebasePluginLog.d("Action: id=%s; foreground=%s", action.id, action.foreground);
+        }
+
+        // Color
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.M) {
+            if(spec.colorArgb != null){
+                notificationBuilder.setColor(spec.colorArgb);
+                FirebasePluginLog.d("Color: custom=%s", spec.color);
+            }else{
+                int defaultColor = context.getResources().getColor(FirebasePluginResources.getIdentifier(context, "accent", FirebasePluginResources.TYPE_COLOR), null);
+                FirebasePluginLog.d("Color: default");
+                notificationBuilder.setColor(defaultColor);
+            }
+        }
+
+        // Visibility
+        FirebasePluginLog.d("Visibility: %s", spec.visibilityValue);
+        notificationBuilder.setVisibility(spec.visibilityValue);
+
+        // Priority
+        FirebasePluginLog.d("Priority: %s", spec.priorityValue);
+        notificationBuilder.setPriority(spec.priorityValue);
+
+        // Progress
+        applyProgress(notificationBuilder, spec);
+        if (spec.update) {
+            // Further updates of this notification shouldn't sound or vibrate again
+            notificationBuilder.setOnlyAlertOnce(true);
+        }
+
+        return notificationBuilder;
+    }
+
+    /**
+     * Applies an update message to the builder of the notification it updates.
+     * Only the title, body, progress and ongoing state are updated; icons, image, actions and the channel are kept.
+     */
+    public static void applyUpdate(NotificationCompat.Builder builder, NotificationSpec spec) {
+        if (spec.title != null) {
+            builder.setContentTitle(spec.title);
+        }
+        if (spec.body != null) {
+            CharSequence body = spec.bodyHtml != null ? fromHtml(spec.body) : spec.body;
+            builder.setContentText(body);
+            if (!FirebasePluginMessagingService.imageTypeBigPicture.equalsIgnoreCase(spec.imageType)) {
+                builder.setStyle(new NotificationCompat.BigTextStyle().bigText(body));
+            }
+        }
+        applyProgress(builder, spec);
+        builder.setOnlyAlertOnce(true);
+    }
+
+    private static void applyProgress(NotificationCompat.Builder builder, NotificationSpec spec) {
+        if (spec.progress >= 0 || spec.progressIndeterminate) {
+            builder.setProgress(spec.progressMax, Math.max(0, spec.progress), spec.progressIndeterminate);
+            FirebasePluginLog.d("Progress: %s/%s; indeterminate=%s", spec.progress, spec.progressMax, spec.progressIndeterminate);
+        } else {
+            builder.setProgress(0, 0, false);
+        }
+        builder.setOngoing(spec.ongoing);
+        if (spec.ongoing) {
+            FirebasePluginLog.d("Ongoing: true");
+        }
+    }
+
+    /**
+     * Creates the intent which opens the app and passes the given extras to the JS layer as a tapped notification.
+     */
+    private static PendingIntent createOpenIntent(Context context, Intent extras, int requestCode) {
+        Intent intent;
+        PendingIntent pendingIntent;
+        final int flag = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE : PendingIntent.FLAG_UPDATE_CURRENT;  // Only add on platform levels that support FLAG_MUTABLE
+
+        if(context.getApplicationInfo().targetSdkVersion >= Build.VERSION_CODES.S && Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            intent = new Intent(context, OnNotificationReceiverActivity.class);
+            intent.putExtras(extras);
+            pendingIntent = PendingIntent.getActivity(context, requestCode, intent, flag);
+        }else{
+            intent = new Intent(context, OnNotificationOpenReceiver.class);
+            intent.putExtras(extras);
+            pendingIntent = PendingIntent.getBroadcast(context, requestCode, intent, flag);
+        }
+        return pendingIntent;
+    }
+
+    /**
+     * Creates the button for the given action.
+     * Foreground actions open the app like a tap on the notification; background actions are handled by
+     * {@link OnNotificationActionReceiver} without starting the app UI.
+     */
+    private static NotificationCompat.Action createAction(Context context, NotificationSpec spec, Bundle bundle, NotificationSpec.Action action) {
+        Intent extras = new Intent()
+                .putExtras(bundle)
+                .putExtra(OnNotificationActionReceiver.ACTION_KEY, action.id)
+                .putExtra(OnNotificationActionReceiver.EXTRA_NOTIFICATION_TAG, spec.tag)
+                .putExtra(OnNotificationActionReceiver.EXTRA_NOTIFICATION_ID, spec.id.hashCode());
+        int requestCode = (spec.id + ":" + action.id).hashCode();
+
+        PendingIntent pendingIntent;
+        if (action.foreground) {
+            pendingIntent = createOpenIntent(context, extras, requestCode);
+        } else {
+            final int flag = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE : PendingIntent.FLAG_UPDATE_CURRENT;
+            Intent intent = new Intent(context, OnNotificationActionReceiver.class).putExtras(extras);
+            pendingIntent = PendingIntent.getBroadcast(context, requestCode, intent, flag);
+        }
+
+        int icon = action.icon != null ? FirebasePluginResources.getIdentifier(context, action.icon, FirebasePluginResources.TYPE_DRAWABLE) : 0;
+        return new NotificationCompat.Action.Builder(icon, action.title, pendingIntent).build();
+    }
+
+    /**
+     * Decodes the given encoded image and applies it to the builder as the large icon or big picture.
+     * @param data encoded image, may be null
+     * @return the bitmap memory used
+     */
+    public static long applyImage(Context context, NotificationCompat.Builder builder, NotificationSpec spec, byte[] data) {
+        if (data == null) return 0;
+        boolean bigPicture = FirebasePluginMessagingService.imageTypeBigPicture.equalsIgnoreCase(spec.imageType);
+        int[] targetSize = bigPicture ? FirebasePluginBitmapDecoder.getBigPictureSize(context) : FirebasePluginBitmapDecoder.getLargeIconSize(context);
+        Bitmap bitmap = FirebasePluginBitmapDecoder.decode(data, targetSize[0], targetSize[1]);
+        if (bitmap == null) return 0;
+
+        long bitmapBytes = FirebasePluginBitmapDecoder.getByteCount(bitmap);
+        if(FirebasePluginMessagingService.imageTypeCircle.equalsIgnoreCase(spec.imageType)) {
+            bitmap = FirebasePluginBitmapDecoder.getCircleBitmap(bitmap);
+            bitmapBytes += FirebasePluginBitmapDecoder.getByteCount(bitmap);
+        }
+        else if(bigPicture) {
+            builder.setStyle(new NotificationCompat.BigPictureStyle().bigPicture(bitmap).bigLargeIcon((Bitmap) null));
+        }
+        builder.setLargeIcon(bitmap);
+        return bitmapBytes;
+    }
+
+    private static Spanned fromHtml(String source) {
+        if (source != null)
+            return Html.fromHtml(source);
+        else
+            return null;
+    }
+}
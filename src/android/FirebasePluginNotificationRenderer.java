@@ -0,0 +1,578 @@
+package org.apache.cordova.firebase;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.service.notification.StatusBarNotification;
+
+import androidx.core.app.NotificationCompat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Posts notifications on a dedicated thread so bursts of messages don't run into the OS notification rate limit,
+ * which silently drops excess updates.
+ * <br/>
+ * - Updates to the same tag/ID within the coalescing window are merged: the first is posted immediately and
+ * the latest of any further updates is posted when the window has elapsed.
+ * <br/>
+ * - Posts are limited per channel; requests over the limit are deferred rather than dropped.
+ * <br/>
+ * - Once the number of active notifications in a channel reaches the group threshold, further notifications are
+ * grouped under an InboxStyle summary listing the most recent messages.
+ * <br/>
+ * - High priority notifications skip the queue: they are handled ahead of pending work and are posted
+ * immediately, bypassing the coalescing window and the rate limit.
+ * <br/>
+ * - The builders of the most recently posted tagged notifications are kept, so update messages can be applied to
+ * them in place. Updates of a notification are posted at most once per update interval; the latest state is
+ * posted when the interval has elapsed.
+ */
+public class FirebasePluginNotificationRenderer {
+
+    protected static final String COALESCE_WINDOW_META_DATA = "firebasex_notification_coalesce_window_ms";
+    protected static final String MAX_RATE_META_DATA = "firebasex_notification_max_rate";
+    protected static final String GROUP_THRESHOLD_META_DATA = "firebasex_notification_group_threshold";
+    protected static final String UPDATE_INTERVAL_META_DATA = "firebasex_notification_update_interval_ms";
+
+    private static final int DEFAULT_COALESCE_WINDOW_MS = 500;
+    private static final int DEFAULT_MAX_RATE = 5;
+    private static final int DEFAULT_GROUP_THRESHOLD = 4;
+    private static final int DEFAULT_UPDATE_INTERVAL_MS = 1000;
+
+    private static final long RATE_WINDOW_MS = 1000;
+    /** Maximum number of lines shown by the InboxStyle group summary */
+    private static final int SUMMARY_MAX_LINES = 6;
+    private static final int LAST_POSTED_PRUNE_SIZE = 256;
+    /** Interval at which the locally tracked active notifications are re-synced with the OS, to pick up dismissals */
+    private static final long ACTIVE_RESYNC_INTERVAL_MS = 30 * 1000;
+    /** Number of posted notifications whose builders are kept for updates; builders may hold large bitmaps */
+    private static final int UPDATABLE_CACHE_SIZE = 16;
+
+    private static final String GROUP_KEY_PREFIX = "firebasex.";
+    private static final String SUMMARY_TAG = "firebasex_group_summary";
+
+    private static FirebasePluginNotificationRenderer instance;
+
+    private final Context context;
+    private final NotificationManager notificationManager;
+    private final Handler handler;
+
+    private final long coalesceWindowMs;
+    private final int maxRate;
+    private final int groupThreshold;
+    private final long updateIntervalMs;
+
+    // State below is only accessed on the renderer thread
+    private final Map<String, Request> pending = new HashMap<String, Request>();
+    private final Map<String, Request> updatable = new LinkedHashMap<String, Request>(UPDATABLE_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Request> eldest) {
+            return size() > UPDATABLE_CACHE_SIZE;
+        }
+    };
+    private final Map<String, Long> lastPostedAt = new HashMap<String, Long>();
+    private final Map<String, ChannelState> channels = new HashMap<String, ChannelState>();
+    /** Flush runnables scheduled for deferred requests, by request key */
+    private final Map<String, Runnable> scheduledFlushes = new HashMap<String, Runnable>();
+    /** Active notifications per channel (all under "" before Android 8), tracked locally to avoid IPC on every post */
+    private final Map<String, ActiveNotifications> active = new HashMap<String, ActiveNotifications>();
+    private long lastActiveSync = 0;
+    private boolean activeSynced = false;
+
+    private volatile long postedCount = 0;
+    private volatile long coalescedCount = 0;
+    private volatile long deferredCount = 0;
+    private volatile long groupedCount = 0;
+    private volatile long updatedCount = 0;
+
+    /**
+     * Notified on the renderer thread of the outcome of {@link #update}.
+     */
+    public interface UpdateListener {
+        /**
+         * @param updated false if there is no builder of the notification to update, i.e. it must be rendered in full
+         */
+        void onUpdate(boolean updated);
+    }
+
+    private static class Request {
+        final String key;
+        final String tag;
+        final int id;
+        final String channelId;
+        final NotificationCompat.Builder builder;
+        final int smallIcon;
+        final CharSequence summaryLine;
+        final String messageType;
+        final boolean highPriority;
+        final long sentTime;
+        boolean deferred;
+        /** Whether this is an in-place update of a posted notification */
+        boolean update;
+        /** Called once the notification was posted or failed to post, including those of requests this one superseded */
+        List<Runnable> onPosted;
+
+        void addOnPosted(Runnable callback) {
+            if (callback == null) return;
+            if (onPosted == null) onPosted = new ArrayList<Runnable>(1);
+            onPosted.add(callback);
+        }
+
+        /**
+         * Takes over the callbacks of a request superseded by this one, as this request posts its notification instead.
+         */
+        void supersede(Request superseded) {
+            if (superseded.onPosted == null) return;
+            for (Runnable callback : superseded.onPosted) {
+                addOnPosted(callback);
+            }
+            superseded.onPosted = null;
+        }
+
+        Request(String tag, int id, String channelId, NotificationCompat.Builder builder, int smallIcon, CharSequence summaryLine,
+                String messageType, boolean highPriority, long sentTime) {
+            this.key = tag + ":" + id;
+            this.tag = tag;
+            this.id = id;
+            this.channelId = channelId != null ? channelId : "";
+            this.builder = builder;
+            this.smallIcon = smallIcon;
+            this.summaryLine = summaryLine;
+            this.messageType = messageType;
+            this.highPriority = highPriority;
+            this.sentTime = sentTime;
+        }
+    }
+
+    private static class ChannelState {
+        final ArrayDeque<Long> postTimes = new ArrayDeque<Long>();
+        final ArrayDeque<CharSequence> summaryLines = new ArrayDeque<CharSequence>();
+        int groupedCount = 0;
+    }
+
+    private static class ActiveNotifications {
+        /** Keys of the active notifications, excluding group summaries */
+        final Set<String> keys = new HashSet<String>();
+        /** Keys of the active notifications in the plugin's group */
+        final Set<String> grouped = new HashSet<String>();
+    }
+
+    public static synchronized FirebasePluginNotificationRenderer getInstance(Context context) {
+        if (instance == null) {
+            instance = new FirebasePluginNotificationRenderer(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the instance if it has been created, without creating it (and starting its thread).
+     */
+    static synchronized FirebasePluginNotificationRenderer peekInstance() {
+        return instance;
+    }
+
+    private FirebasePluginNotificationRenderer(Context context) {
+        this.context = context;
+        this.notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        this.coalesceWindowMs = Math.max(0, FirebasePlugin.getManifestMetaDataInt(context, COALESCE_WINDOW_META_DATA, DEFAULT_COALESCE_WINDOW_MS));
+        this.maxRate = FirebasePlugin.getManifestMetaDataInt(context, MAX_RATE_META_DATA, DEFAULT_MAX_RATE);
+        this.groupThreshold = FirebasePlugin.getManifestMetaDataInt(context, GROUP_THRESHOLD_META_DATA, DEFAULT_GROUP_THRESHOLD);
+        this.updateIntervalMs = Math.max(0, FirebasePlugin.getManifestMetaDataInt(context, UPDATE_INTERVAL_META_DATA, DEFAULT_UPDATE_INTERVAL_MS));
+
+        HandlerThread thread = new HandlerThread("FirebasePluginNotificationRenderer");
+        thread.start();
+        this.handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Requests the given notification to be posted.
+     * @param tag notification tag, may be null
+     * @param id notification ID
+     * @param channelId resolved channel ID the builder was created with
+     * @param builder fully configured builder; must not be modified by the caller afterwards
+     * @param smallIcon small icon resource ID, used for the group summary
+     * @param summaryLine line representing this notification in a group summary
+     */
+    public void post(String tag, int id, String channelId, NotificationCompat.Builder builder, int smallIcon, CharSequence summaryLine) {
+        post(tag, id, channelId, builder, smallIcon, summaryLine, null, false, 0);
+    }
+
+    /**
+     * Requests the given notification to be posted.
+     * @param messageType type of the message the notification was created for, used for latency metrics
+     * @param highPriority whether to post the notification ahead of pending requests without coalescing or rate limiting
+     * @param sentTime time the message was sent at, used for latency metrics; 0 if unknown
+     * @see #post(String, int, String, NotificationCompat.Builder, int, CharSequence)
+     */
+    public void post(String tag, int id, String channelId, NotificationCompat.Builder builder, int smallIcon, CharSequence summaryLine,
+                     String messageType, boolean highPriority, long sentTime) {
+        post(tag, id, channelId, builder, smallIcon, summaryLine, messageType, highPriority, sentTime, null);
+    }
+
+    /**
+     * Requests the given notification to be posted.
+     * @param onPosted called on the renderer thread once the notification was passed to the OS (or failed to post),
+     * i.e. after any coalescing or rate limiting delay; may be null
+     * @see #post(String, int, String, NotificationCompat.Builder, int, CharSequence, String, boolean, long)
+     */
+    public void post(String tag, int id, String channelId, NotificationCompat.Builder builder, int smallIcon, CharSequence summaryLine,
+                     String messageType, boolean highPriority, long sentTime, Runnable onPosted) {
+        final Request request = new Request(tag, id, channelId, builder, smallIcon, summaryLine, messageType, highPriority, sentTime);
+        request.addOnPosted(onPosted);
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                enqueue(request);
+            }
+        };
+        if (highPriority) {
+            handler.postAtFrontOfQueue(runnable);
+        } else {
+            handler.post(runnable);
+        }
+    }
+
+    /**
+     * Applies the given update message to the builder of the notification with the same tag, if it is still known.
+     * @param spec update message with a tag
+     * @param onPosted called on the renderer thread once the update was posted, if it could be applied; may be null
+     * @param listener
+     */
+    public void update(final NotificationSpec spec, final Runnable onPosted, final UpdateListener listener) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                String key = spec.tag + ":" + spec.id.hashCode();
+                // A pending request holds a newer builder than the posted one
+                Request current = pending.get(key);
+                if (current == null) {
+                    current = updatable.get(key);
+                }
+                if (current == null) {
+                    listener.onUpdate(false);
+                    return;
+                }
+                try {
+                    FirebasePluginNotificationRenderWorker.applyUpdate(current.builder, spec);
+                } catch (Exception e) {
+                    FirebasePlugin.handleExceptionWithoutContext(e);
+                    listener.onUpdate(false);
+                    return;
+                }
+                Request request = new Request(current.tag, current.id, current.channelId, current.builder, current.smallIcon,
+                        FirebasePluginNotificationRenderWorker.getSummaryLine(spec), spec.messageType, false, spec.sentTime);
+                request.update = true;
+                request.addOnPosted(onPosted);
+                enqueue(request);
+                listener.onUpdate(true);
+            }
+        });
+    }
+
+    public long getPostedCount() {
+        return postedCount;
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    public long getDeferredCount() {
+        return deferredCount;
+    }
+
+    public long getGroupedCount() {
+        return groupedCount;
+    }
+
+    /**
+     * Number of update messages posted in place.
+     */
+    public long getUpdatedCount() {
+        return updatedCount;
+    }
+
+    private void enqueue(Request request) {
+        if (request.highPriority) {
+            // Supersedes any pending update of the same notification
+            Request superseded = pending.remove(request.key);
+            if (superseded != null) {
+                request.supersede(superseded);
+                coalescedCount++;
+                Runnable scheduledFlush = scheduledFlushes.remove(request.key);
+                if (scheduledFlush != null) {
+                    handler.removeCallbacks(scheduledFlush);
+                }
+            }
+            notifyNow(request, SystemClock.uptimeMillis());
+            return;
+        }
+        Request superseded = pending.put(request.key, request);
+        if (superseded != null) {
+            // A post for this notification is already scheduled: it will pick up the latest request
+            request.supersede(superseded);
+            coalescedCount++;
+            FirebasePluginLog.d("Coalesced notification update: %s", request.key);
+            return;
+        }
+        flush(request.key);
+    }
+
+    private void flush(final String key) {
+        Request request = pending.get(key);
+        if (request == null) return;
+
+        long now = SystemClock.uptimeMillis();
+        long readyAt = getReadyAt(request, now);
+        if (readyAt > now) {
+            if (!request.deferred) {
+                request.deferred = true;
+                deferredCount++;
+            }
+            Runnable scheduledFlush = new Runnable() {
+                @Override
+                public void run() {
+                    scheduledFlushes.remove(key);
+                    flush(key);
+                }
+            };
+            scheduledFlushes.put(key, scheduledFlush);
+            handler.postAtTime(scheduledFlush, readyAt);
+            return;
+        }
+
+        pending.remove(key);
+        notifyNow(request, now);
+    }
+
+    /**
+     * Returns the earliest time the given request may be posted at.
+     */
+    private long getReadyAt(Request request, long now) {
+        long readyAt = now;
+
+        Long lastPosted = lastPostedAt.get(request.key);
+        if (lastPosted != null) {
+            readyAt = Math.max(readyAt, lastPosted + (request.update ? Math.max(coalesceWindowMs, updateIntervalMs) : coalesceWindowMs));
+        }
+
+        if (maxRate > 0) {
+            ArrayDeque<Long> postTimes = getChannelState(request.channelId).postTimes;
+            while (!postTimes.isEmpty() && postTimes.peekFirst() <= now - RATE_WINDOW_MS) {
+                postTimes.removeFirst();
+            }
+            if (postTimes.size() >= maxRate) {
+                readyAt = Math.max(readyAt, postTimes.peekFirst() + RATE_WINDOW_MS);
+            }
+        }
+        return readyAt;
+    }
+
+    private void notifyNow(Request request, long now) {
+        try {
+            doNotify(request, now);
+        } finally {
+            if (request.onPosted != null) {
+                for (Runnable callback : request.onPosted) {
+                    try {
+                        callback.run();
+                    } catch (Exception e) {
+                        FirebasePlugin.handleExceptionWithoutContext(e);
+                    }
+                }
+                request.onPosted = null;
+            }
+        }
+    }
+
+    private void doNotify(Request request, long now) {
+        ChannelState channelState = getChannelState(request.channelId);
+        String groupKey = GROUP_KEY_PREFIX + request.channelId;
+
+        boolean grouped = false;
+        // Updates keep the group of the notification they update
+        if (!request.update && !SUMMARY_TAG.equals(request.tag) && shouldGroup(request, groupKey)) {
+            request.builder.setGroup(groupKey);
+            grouped = true;
+        }
+
+        Notification notification = request.builder.build();
+        try {
+            notificationManager.notify(request.tag, request.id, notification);
+        } catch (RuntimeException e) {
+            FirebasePluginLog.e("Failed to post notification " + request.key, e);
+            return;
+        }
+        postedCount++;
+        if (request.update) {
+            updatedCount++;
+        }
+        if (request.tag != null && !SUMMARY_TAG.equals(request.tag)) {
+            updatable.put(request.key, request);
+        }
+        trackActive(request, grouped);
+        FirebasePluginCore.onNotificationPosted();
+        FirebasePluginMessageLatency.record(context, request.messageType, request.highPriority, FirebasePluginMessageLatency.STAGE_POSTED, request.sentTime);
+        channelState.postTimes.addLast(now);
+        recordPosted(request.key, now);
+
+        if (grouped) {
+            groupedCount++;
+            channelState.groupedCount++;
+            if (request.summaryLine != null) {
+                channelState.summaryLines.addFirst(request.summaryLine);
+                while (channelState.summaryLines.size() > SUMMARY_MAX_LINES) {
+                    channelState.summaryLines.removeLast();
+                }
+            }
+            postSummary(request, groupKey, channelState, notification);
+        }
+    }
+
+    /**
+     * Whether the given notification should be added to the channel group, i.e. the channel has reached the
+     * group threshold of active notifications.
+     */
+    private boolean shouldGroup(Request request, String groupKey) {
+        if (groupThreshold <= 0 || Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return false;
+
+        long now = SystemClock.uptimeMillis();
+        if (!activeSynced || now - lastActiveSync >= ACTIVE_RESYNC_INTERVAL_MS) {
+            syncActive();
+            lastActiveSync = now;
+        }
+        ActiveNotifications activeNotifications = getActive(request.channelId);
+        int active = activeNotifications.keys.size() - (activeNotifications.keys.contains(request.key) ? 1 : 0);
+        int activeInGroup = activeNotifications.grouped.size() - (activeNotifications.grouped.contains(request.key) ? 1 : 0);
+
+        ChannelState channelState = getChannelState(request.channelId);
+        if (activeInGroup == 0 && channelState.groupedCount > 0) {
+            // The previous group was dismissed
+            channelState.groupedCount = 0;
+            channelState.summaryLines.clear();
+        }
+        return activeInGroup > 0 || active >= groupThreshold;
+    }
+
+    /**
+     * Records a posted notification in the locally tracked active notifications.
+     */
+    private void trackActive(Request request, boolean grouped) {
+        if (SUMMARY_TAG.equals(request.tag)) return;
+        ActiveNotifications activeNotifications = getActive(request.channelId);
+        activeNotifications.keys.add(request.key);
+        if (grouped) {
+            activeNotifications.grouped.add(request.key);
+        } else if (!request.update) {
+            activeNotifications.grouped.remove(request.key);
+        }
+    }
+
+    /**
+     * Replaces the locally tracked active notifications with those reported by the OS.
+     * Only called every {@link #ACTIVE_RESYNC_INTERVAL_MS}, as it is a binder call.
+     */
+    private void syncActive() {
+        active.clear();
+        activeSynced = true;
+        try {
+            for (StatusBarNotification sbn : notificationManager.getActiveNotifications()) {
+                Notification notification = sbn.getNotification();
+                if ((notification.flags & Notification.FLAG_GROUP_SUMMARY) != 0) continue;
+                String channelId = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O ? notification.getChannelId() : "";
+                ActiveNotifications activeNotifications = getActive(channelId);
+                String key = sbn.getTag() + ":" + sbn.getId();
+                activeNotifications.keys.add(key);
+                if (notification.getGroup() != null && notification.getGroup().startsWith(GROUP_KEY_PREFIX)) {
+                    activeNotifications.grouped.add(key);
+                }
+            }
+        } catch (RuntimeException e) {
+            FirebasePluginLog.e("Failed to query active notifications", e);
+        }
+    }
+
+    /**
+     * Forces the active notifications to be re-synced with the OS before the next post, e.g. after notifications
+     * were cancelled outside the renderer. Does nothing if the renderer has not been created.
+     */
+    public static void invalidateActiveNotifications() {
+        final FirebasePluginNotificationRenderer renderer = peekInstance();
+        if (renderer == null) return;
+        renderer.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                renderer.activeSynced = false;
+            }
+        });
+    }
+
+    private ActiveNotifications getActive(String channelId) {
+        String key = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && channelId != null ? channelId : "";
+        ActiveNotifications activeNotifications = active.get(key);
+        if (activeNotifications == null) {
+            activeNotifications = new ActiveNotifications();
+            active.put(key, activeNotifications);
+        }
+        return activeNotifications;
+    }
+
+    private void postSummary(Request request, String groupKey, ChannelState channelState, Notification child) {
+        NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle();
+        for (CharSequence line : channelState.summaryLines) {
+            style.addLine(line);
+        }
+        int more = channelState.groupedCount - channelState.summaryLines.size();
+        if (more > 0) {
+            style.setSummaryText("+" + more);
+        }
+
+        NotificationCompat.Builder summaryBuilder = new NotificationCompat.Builder(context, request.channelId)
+                .setSmallIcon(request.smallIcon)
+                .setContentText(request.summaryLine)
+                .setStyle(style)
+                .setGroup(groupKey)
+                .setGroupSummary(true)
+                .setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_CHILDREN)
+                .setNumber(channelState.groupedCount)
+                .setContentIntent(child.contentIntent)
+                .setAutoCancel(true);
+
+        // Goes through the same coalescing and rate limiting as regular notifications
+        enqueue(new Request(SUMMARY_TAG, request.channelId.hashCode(), request.channelId, summaryBuilder, request.smallIcon, null, null, false, 0));
+    }
+
+    private void recordPosted(String key, long now) {
+        lastPostedAt.put(key, now);
+        if (lastPostedAt.size() > LAST_POSTED_PRUNE_SIZE) {
+            Iterator<Map.Entry<String, Long>> iterator = lastPostedAt.entrySet().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().getValue() <= now - Math.max(coalesceWindowMs, updateIntervalMs)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private ChannelState getChannelState(String channelId) {
+        ChannelState channelState = channels.get(channelId);
+        if (channelState == null) {
+            channelState = new ChannelState();
+            channels.put(channelId, channelState);
+        }
+        return channelState;
+    }
+}
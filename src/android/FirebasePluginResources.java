@@ -0,0 +1,66 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide cache of resource name to ID lookups.
+ * <br/>
+ * {@link android.content.res.Resources#getIdentifier(String, String, String)} is a slow, reflective lookup
+ * which would otherwise be called several times for every displayed notification.
+ * Negative results (resource does not exist) are cached as 0.
+ */
+public class FirebasePluginResources {
+
+    protected static final String TYPE_DRAWABLE = "drawable";
+    protected static final String TYPE_COLOR = "color";
+    protected static final String TYPE_STRING = "string";
+
+    private static final ConcurrentHashMap<String, Integer> identifiers = new ConcurrentHashMap<String, Integer>();
+
+    private static volatile boolean warmedUp = false;
+
+    /**
+     * Returns the ID of the named resource in the app package, or 0 if no such resource exists.
+     * @param context
+     * @param name
+     * @param type
+     * @return
+     */
+    public static int getIdentifier(Context context, String name, String type) {
+        if (name == null) return 0;
+        String key = type + "/" + name;
+        Integer id = identifiers.get(key);
+        if (id == null) {
+            id = context.getResources().getIdentifier(name, type, context.getPackageName());
+            identifiers.put(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the value of the named string resource.
+     * @param context
+     * @param name
+     * @return
+     */
+    public static String getString(Context context, String name) {
+        return context.getString(getIdentifier(context, name, TYPE_STRING));
+    }
+
+    /**
+     * Resolves the resources needed to display every notification so the first message doesn't pay for them.
+     * Only does work once per process.
+     * @param context
+     */
+    public static void warmUp(Context context) {
+        if (warmedUp) return;
+        getIdentifier(context, FirebasePluginMessagingService.defaultSmallIconName, TYPE_DRAWABLE);
+        getIdentifier(context, FirebasePluginMessagingService.defaultLargeIconName, TYPE_DRAWABLE);
+        getIdentifier(context, "accent", TYPE_COLOR);
+        getIdentifier(context, "default_notification_channel_id", TYPE_STRING);
+        getIdentifier(context, "default_notification_channel_name", TYPE_STRING);
+        warmedUp = true;
+    }
+}
@@ -0,0 +1,202 @@
+package org.apache.cordova.firebase;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local notifications scheduled from the JS layer.
+ * <br/>
+ * Scheduled notifications are persisted and fired by {@link AlarmManager} alarms, so they are displayed without the
+ * app running; {@link OnScheduledNotificationReceiver} re-creates the alarms after a reboot or app update.
+ * They are rendered by the {@link FirebasePluginNotificationRenderWorker} like received messages, so the same
+ * notification_* data keys (channel, icons, image etc.) apply. The image is fetched into the image cache when the
+ * notification is scheduled, so it is available when the notification fires.
+ */
+public class FirebasePluginScheduledNotifications {
+
+    static final String ACTION_FIRE = "org.apache.cordova.firebase.SCHEDULED_NOTIFICATION";
+    static final String EXTRA_ID = "firebasex_scheduled_id";
+
+    private static final String PREFERENCES_NAME = FirebasePlugin.SETTINGS_NAME + ".scheduled_notifications";
+    private static final String KEY_AT = "at";
+    private static final String KEY_DATA = "data";
+
+    private static FirebasePluginScheduledNotifications instance;
+
+    private final Context context;
+    private final SharedPreferences preferences;
+    private final AlarmManager alarmManager;
+
+    public static synchronized FirebasePluginScheduledNotifications getInstance(Context context) {
+        if (instance == null) {
+            instance = new FirebasePluginScheduledNotifications(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private FirebasePluginScheduledNotifications(Context context) {
+        this.context = context;
+        this.preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        this.alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+    }
+
+    /**
+     * Schedules a notification, replacing any notification scheduled with the same ID.
+     * @param id
+     * @param at time to display the notification at (ms since epoch)
+     * @param data notification_* keys describing the notification and any custom data passed to the JS layer on tap
+     */
+    public synchronized void schedule(String id, long at, JSONObject data) throws JSONException {
+        if (!data.has("notification_android_id")) {
+            // Rescheduling the same ID replaces the displayed notification instead of stacking it
+            data.put("notification_android_id", id);
+        }
+        JSONObject entry = new JSONObject();
+        entry.put(KEY_AT, at);
+        entry.put(KEY_DATA, data);
+        preferences.edit().putString(id, entry.toString()).apply();
+
+        setAlarm(id, at);
+        FirebasePluginLog.d("Scheduled notification %s at %s", id, at);
+
+        String image = data.optString("notification_android_image", null);
+        if (image != null) {
+            // Prefetch into the image cache so the notification can be posted with its image when it fires
+            FirebasePluginImageLoader.getInstance(context).load(image);
+        }
+    }
+
+    /**
+     * Cancels the scheduled notification with the given ID.
+     * @return false if there is no such scheduled notification
+     */
+    public synchronized boolean cancel(String id) {
+        alarmManager.cancel(createAlarmIntent(id));
+        if (!preferences.contains(id)) return false;
+        preferences.edit().remove(id).apply();
+        FirebasePluginLog.d("Cancelled scheduled notification %s", id);
+        return true;
+    }
+
+    /**
+     * Displays the scheduled notification with the given ID, called when its alarm fires.
+     * @param onDone called once the notification was passed to the OS, after any coalescing or rate limiting delay,
+     * or could not be, e.g. to finish the broadcast which fired it; may be null
+     */
+    public void fire(String id, Runnable onDone) {
+        JSONObject entry;
+        synchronized (this) {
+            entry = load(id);
+            if (entry == null) {
+                done(onDone);
+                return;
+            }
+            preferences.edit().remove(id).apply();
+        }
+        boolean submitted = false;
+        try {
+            long at = entry.getLong(KEY_AT);
+            Map<String, String> data = new HashMap<String, String>();
+            JSONObject json = entry.getJSONObject(KEY_DATA);
+            Iterator<String> keys = json.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                data.put(key, json.getString(key));
+            }
+            NotificationSpec spec = NotificationSpec.fromScheduledNotification("scheduled:" + id + ":" + at, data, at, context);
+            FirebasePluginLog.i("Displaying scheduled notification %s", id);
+            if (spec.showNotification) {
+                FirebasePluginNotificationRenderWorker.getInstance(context).submit(spec, spec.toBundle(), FirebasePluginMessagingService.imageLoadTimeoutMs, onDone);
+                submitted = true;
+            }
+        } catch (JSONException e) {
+            FirebasePlugin.handleExceptionWithoutContext(e);
+        } finally {
+            if (!submitted) done(onDone);
+        }
+    }
+
+    /**
+     * Re-creates the alarms of all scheduled notifications, which are cleared by a reboot or app update.
+     * Notifications whose time passed in the meantime are displayed immediately.
+     * @param onDone called once all overdue notifications were posted or could not be; may be null
+     */
+    public void restore(final Runnable onDone) {
+        Map<String, ?> entries;
+        synchronized (this) {
+            entries = preferences.getAll();
+        }
+        // One count per overdue notification, plus one released once all have been fired
+        final AtomicInteger pending = new AtomicInteger(1);
+        Runnable fired = new Runnable() {
+            @Override
+            public void run() {
+                if (pending.decrementAndGet() == 0) done(onDone);
+            }
+        };
+        long now = System.currentTimeMillis();
+        for (String id : entries.keySet()) {
+            JSONObject entry = load(id);
+            if (entry == null) continue;
+            long at = entry.optLong(KEY_AT);
+            if (at <= now) {
+                pending.incrementAndGet();
+                fire(id, fired);
+            } else {
+                setAlarm(id, at);
+            }
+        }
+        FirebasePluginLog.d("Restored %s scheduled notifications", entries.size());
+        fired.run();
+    }
+
+    private static void done(Runnable onDone) {
+        if (onDone != null) onDone.run();
+    }
+
+    private JSONObject load(String id) {
+        String value = preferences.getString(id, null);
+        if (value == null) return null;
+        try {
+            return new JSONObject(value);
+        } catch (JSONException e) {
+            FirebasePlugin.handleExceptionWithoutContext(e);
+            preferences.edit().remove(id).apply();
+            return null;
+        }
+    }
+
+    private void setAlarm(String id, long at) {
+        PendingIntent pendingIntent = createAlarmIntent(id);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            // Exact alarms require the SCHEDULE_EXACT_ALARM permission from Android 12; else the OS may defer the alarm a few minutes
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S || alarmManager.canScheduleExactAlarms()) {
+                alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, at, pendingIntent);
+            } else {
+                alarmManager.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, at, pendingIntent);
+            }
+        } else {
+            alarmManager.setExact(AlarmManager.RTC_WAKEUP, at, pendingIntent);
+        }
+    }
+
+    private PendingIntent createAlarmIntent(String id) {
+        Intent intent = new Intent(context, OnScheduledNotificationReceiver.class)
+                .setAction(ACTION_FIRE)
+                .putExtra(EXTRA_ID, id);
+        final int flag = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE : PendingIntent.FLAG_UPDATE_CURRENT;
+        return PendingIntent.getBroadcast(context, id.hashCode(), intent, flag);
+    }
+}
@@ -0,0 +1,29 @@
+package org.apache.cordova.firebase;
+
+/**
+ * Static message receivers ({@link FirebasePluginMessageReceiverStatic}) known at build time.
+ * <br/>
+ * This file is regenerated by the after_prepare hook (scripts/lib/android.js) which scans the app's Java sources
+ * for receiver classes, so on a cold start they can be created by direct constructor calls, without reflection
+ * or reading the persisted list of receiver classes.
+ * This default version contains no receivers and relies on the persisted list.
+ */
+final class FirebasePluginStaticReceiverRegistry {
+
+    /**
+     * Whether receivers registered at runtime are persisted and re-created from the persisted list on a cold start.
+     */
+    static final boolean PERSISTED_FALLBACK = true;
+
+    static final Class<?>[] RECEIVER_CLASSES = {
+    };
+
+    private FirebasePluginStaticReceiverRegistry() {
+    }
+
+    /**
+     * Creates one instance of each receiver class; receivers register themselves in their constructor.
+     */
+    static void createReceivers() {
+    }
+}
@@ -0,0 +1,89 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Persisted cache of the FCM registration token.
+ * <br/>
+ * Keeps the last known token with the time it was obtained, so getToken and onTokenRefresh can be served without
+ * a round trip to FirebaseMessaging while the cached token is fresh, and the last token passed to the JS token
+ * callback, so the callback only fires when the token actually changes - also across app restarts.
+ * <br/>
+ * A fresh token is pushed to the cache by {@link FirebasePluginMessagingService#onNewToken(String)} whenever FCM rotates it.
+ */
+public class FirebasePluginTokenCache {
+
+    protected static final String MAX_AGE_META_DATA = "firebasex_token_cache_max_age_hours";
+
+    private static final int DEFAULT_MAX_AGE_HOURS = 24;
+
+    private static final String PREFERENCES_KEY_TOKEN = "FCM.Token";
+    private static final String PREFERENCES_KEY_TOKEN_TIME = "FCM.Token.Time";
+    private static final String PREFERENCES_KEY_TOKEN_DELIVERED = "FCM.Token.Delivered";
+
+    private static FirebasePluginTokenCache instance;
+
+    private final SharedPreferences preferences;
+    private final long maxAgeMs;
+
+    public static synchronized FirebasePluginTokenCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new FirebasePluginTokenCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private FirebasePluginTokenCache(Context context) {
+        this.preferences = context.getSharedPreferences(FirebasePlugin.SETTINGS_NAME, Context.MODE_PRIVATE);
+        this.maxAgeMs = Math.max(0, FirebasePlugin.getManifestMetaDataInt(context, MAX_AGE_META_DATA, DEFAULT_MAX_AGE_HOURS)) * 60L * 60 * 1000;
+    }
+
+    /**
+     * Returns the cached token if it was obtained within the configured maximum age.
+     * @return null if there is no fresh token
+     */
+    public synchronized String getFreshToken() {
+        if (maxAgeMs <= 0) return null;
+        String token = preferences.getString(PREFERENCES_KEY_TOKEN, null);
+        if (token == null) return null;
+        long age = System.currentTimeMillis() - preferences.getLong(PREFERENCES_KEY_TOKEN_TIME, 0);
+        return age >= 0 && age < maxAgeMs ? token : null;
+    }
+
+    /**
+     * Stores the given token as the current token.
+     * @param token
+     */
+    public synchronized void put(String token) {
+        if (token == null) return;
+        preferences.edit()
+                .putString(PREFERENCES_KEY_TOKEN, token)
+                .putLong(PREFERENCES_KEY_TOKEN_TIME, System.currentTimeMillis())
+                .apply();
+    }
+
+    /**
+     * Records the given token as passed to the JS token callback.
+     * @param token
+     * @return false if this token was already the last one passed to the callback
+     */
+    public synchronized boolean markDelivered(String token) {
+        if (token == null || token.equals(preferences.getString(PREFERENCES_KEY_TOKEN_DELIVERED, null))) {
+            return false;
+        }
+        preferences.edit().putString(PREFERENCES_KEY_TOKEN_DELIVERED, token).apply();
+        return true;
+    }
+
+    /**
+     * Clears the cached and delivered token, e.g. when the token is deleted.
+     */
+    public synchronized void invalidate() {
+        preferences.edit()
+                .remove(PREFERENCES_KEY_TOKEN)
+                .remove(PREFERENCES_KEY_TOKEN_TIME)
+                .remove(PREFERENCES_KEY_TOKEN_DELIVERED)
+                .apply();
+    }
+}
@@ -0,0 +1,210 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.messaging.FirebaseMessaging;
+
+import org.apache.cordova.CallbackContext;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bulk topic subscriptions.
+ * <br/>
+ * The topics subscribed to via the plugin are persisted, so bulk operations only issue the subscribe/unsubscribe
+ * calls needed to get from the current set to the requested one. The calls run with a bounded number of tasks in
+ * flight and a single result is returned with the outcome per topic:
+ * "subscribed", "unsubscribed", "unchanged" or "failed" (with an "error").
+ */
+public class FirebasePluginTopicSubscriptions {
+
+    private static final String PREFERENCES_KEY_TOPICS = "FCM.Topics";
+
+    /** Maximum number of concurrent subscribe/unsubscribe tasks */
+    private static final int MAX_CONCURRENT_TASKS = 4;
+
+    public static final String STATUS_SUBSCRIBED = "subscribed";
+    public static final String STATUS_UNSUBSCRIBED = "unsubscribed";
+    public static final String STATUS_UNCHANGED = "unchanged";
+    public static final String STATUS_FAILED = "failed";
+
+    private static FirebasePluginTopicSubscriptions instance;
+
+    private final SharedPreferences preferences;
+    private final Set<String> topics;
+
+    public static synchronized FirebasePluginTopicSubscriptions getInstance(Context context) {
+        if (instance == null) {
+            instance = new FirebasePluginTopicSubscriptions(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private FirebasePluginTopicSubscriptions(Context context) {
+        this.preferences = context.getSharedPreferences(FirebasePlugin.SETTINGS_NAME, Context.MODE_PRIVATE);
+        this.topics = new HashSet<String>(preferences.getStringSet(PREFERENCES_KEY_TOPICS, new HashSet<String>()));
+    }
+
+    /**
+     * Subscribes to exactly the given topics, unsubscribing from any other topic subscribed to via the plugin.
+     */
+    public void setTopics(Collection<String> requested, CallbackContext callbackContext) {
+        Set<String> subscribe = new HashSet<String>(requested);
+        Set<String> unsubscribe;
+        synchronized (this) {
+            subscribe.removeAll(topics);
+            unsubscribe = new HashSet<String>(topics);
+        }
+        unsubscribe.removeAll(requested);
+        run(requested, subscribe, unsubscribe, callbackContext);
+    }
+
+    public void subscribeMany(Collection<String> requested, CallbackContext callbackContext) {
+        Set<String> subscribe = new HashSet<String>(requested);
+        synchronized (this) {
+            subscribe.removeAll(topics);
+        }
+        run(requested, subscribe, new HashSet<String>(), callbackContext);
+    }
+
+    public void unsubscribeMany(Collection<String> requested, CallbackContext callbackContext) {
+        Set<String> unsubscribe = new HashSet<String>(requested);
+        synchronized (this) {
+            unsubscribe.retainAll(topics);
+        }
+        run(requested, new HashSet<String>(), unsubscribe, callbackContext);
+    }
+
+    /**
+     * Records the outcome of a single topic subscribe/unsubscribe call.
+     */
+    public synchronized void onSubscriptionChanged(String topic, boolean subscribed) {
+        if (subscribed ? topics.add(topic) : topics.remove(topic)) {
+            preferences.edit().putStringSet(PREFERENCES_KEY_TOPICS, new HashSet<String>(topics)).apply();
+        }
+    }
+
+    private void run(Collection<String> requested, Set<String> subscribe, Set<String> unsubscribe, CallbackContext callbackContext) {
+        Batch batch = new Batch(callbackContext);
+        for (String topic : requested) {
+            if (!subscribe.contains(topic) && !unsubscribe.contains(topic)) {
+                batch.results.put(topic, status(STATUS_UNCHANGED, null));
+            }
+        }
+        for (String topic : subscribe) {
+            batch.operations.add(new Operation(topic, true));
+        }
+        for (String topic : unsubscribe) {
+            batch.operations.add(new Operation(topic, false));
+        }
+        FirebasePluginLog.d("Topics: subscribing to %s, unsubscribing from %s", subscribe.size(), unsubscribe.size());
+        batch.start();
+    }
+
+    private static JSONObject status(String status, String error) {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("status", status);
+            if (error != null) {
+                json.put("error", error);
+            }
+        } catch (JSONException e) {
+            FirebasePlugin.handleExceptionWithoutContext(e);
+        }
+        return json;
+    }
+
+    private static class Operation {
+        final String topic;
+        final boolean subscribe;
+
+        Operation(String topic, boolean subscribe) {
+            this.topic = topic;
+            this.subscribe = subscribe;
+        }
+    }
+
+    /**
+     * Runs the operations of one bulk call, keeping at most {@link #MAX_CONCURRENT_TASKS} tasks in flight.
+     */
+    private class Batch {
+        final CallbackContext callbackContext;
+        final ArrayDeque<Operation> operations = new ArrayDeque<Operation>();
+        final Map<String, JSONObject> results = new LinkedHashMap<String, JSONObject>();
+        int inFlight = 0;
+
+        Batch(CallbackContext callbackContext) {
+            this.callbackContext = callbackContext;
+        }
+
+        synchronized void start() {
+            if (operations.isEmpty()) {
+                finish();
+                return;
+            }
+            while (inFlight < MAX_CONCURRENT_TASKS && !operations.isEmpty()) {
+                execute(operations.removeFirst());
+            }
+        }
+
+        private void execute(final Operation operation) {
+            inFlight++;
+            Task<Void> task;
+            try {
+                task = operation.subscribe
+                        ? FirebaseMessaging.getInstance().subscribeToTopic(operation.topic)
+                        : FirebaseMessaging.getInstance().unsubscribeFromTopic(operation.topic);
+            } catch (Exception e) {
+                onComplete(operation, e.getMessage() != null ? e.getMessage() : e.toString());
+                return;
+            }
+            task.addOnCompleteListener(new OnCompleteListener<Void>() {
+                @Override
+                public void onComplete(@NonNull Task<Void> task) {
+                    Exception e = task.isSuccessful() ? null : task.getException();
+                    Batch.this.onComplete(operation, e == null ? null : (e.getMessage() != null ? e.getMessage() : e.toString()));
+                }
+            });
+        }
+
+        private synchronized void onComplete(Operation operation, String error) {
+            inFlight--;
+            if (error == null) {
+                onSubscriptionChanged(operation.topic, operation.subscribe);
+                results.put(operation.topic, status(operation.subscribe ? STATUS_SUBSCRIBED : STATUS_UNSUBSCRIBED, null));
+            } else {
+                results.put(operation.topic, status(STATUS_FAILED, error));
+            }
+
+            if (!operations.isEmpty()) {
+                execute(operations.removeFirst());
+            } else if (inFlight == 0) {
+                finish();
+            }
+        }
+
+        private void finish() {
+            try {
+                JSONObject json = new JSONObject();
+                for (Map.Entry<String, JSONObject> entry : results.entrySet()) {
+                    json.put(entry.getKey(), entry.getValue());
+                }
+                callbackContext.success(json);
+            } catch (JSONException e) {
+                FirebasePlugin.handleExceptionWithContext(e, callbackContext);
+            }
+        }
+    }
+}
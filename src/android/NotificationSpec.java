@@ -0,0 +1,391 @@
+package org.apache.cordova.firebase;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.os.Build;
+import android.os.Bundle;
+import android.text.TextUtils;
+
+import androidx.core.app.NotificationCompat;
+
+import com.google.firebase.messaging.RemoteMessage;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Immutable, typed model of an incoming FCM message and the notification to display for it.
+ * <br/>
+ * Built in a single pass over the message data; numeric fields (priority, visibility, vibration pattern,
+ * light and color) are parsed once here. The same instance is passed through rendering and delivery, and
+ * the message bundle for receivers and the JS layer is built from it once via {@link #toBundle()}.
+ */
+public final class NotificationSpec {
+
+    public static final String MESSAGE_TYPE_NOTIFICATION = "notification";
+    public static final String MESSAGE_TYPE_DATA = "data";
+
+    /** Bundle key of the priority the message was sent with */
+    public static final String PRIORITY_KEY = "google.original_priority";
+    public static final String PRIORITY_HIGH = "high";
+    public static final String PRIORITY_NORMAL = "normal";
+
+    public final String messageType;
+    public final String id;
+    public final String title;
+    public final String body;
+    public final String bodyHtml;
+    public final String tag;
+    public final String sound;
+    public final String vibrate;
+    public final String light;
+    public final String color;
+    public final String icon;
+    public final String channelId;
+    public final String visibility;
+    public final String priority;
+    public final String image;
+    public final String imageType;
+    public final boolean foregroundNotification;
+    public final boolean showNotification;
+    /** Parsed notification_android_actions, empty if none */
+    public final List<Action> actions;
+    /** Whether the message updates the displayed notification with the same tag in place (notification_android_update) */
+    public final boolean update;
+    /** Parsed notification_android_progress, or -1 to show no progress bar */
+    public final int progress;
+    /** Parsed notification_android_progress_max, defaults to 100 */
+    public final int progressMax;
+    public final boolean progressIndeterminate;
+    public final boolean ongoing;
+
+    /** FCM message ID */
+    public final String messageId;
+    public final String from;
+    public final String collapseKey;
+    public final long sentTime;
+    public final int ttl;
+    /** Whether the message was sent with high priority; such messages take the high priority lane */
+    public final boolean highPriority;
+
+    /** Parsed notification_android_vibrate, or null */
+    public final long[] vibratePattern;
+    /** Parsed notification_android_light {argb, onMs, offMs}, or null */
+    public final int[] lightSettings;
+    /** Parsed color, or null to use the default accent color */
+    public final Integer colorArgb;
+    public final int visibilityValue;
+    public final int priorityValue;
+
+    public final Map<String, String> data;
+
+    private Bundle bundle;
+
+    /**
+     * Action button declared by notification_android_actions.
+     */
+    public static final class Action {
+        public final String id;
+        public final String title;
+        public final String icon;
+        /** Whether the action opens the app; otherwise it is handled in the background */
+        public final boolean foreground;
+
+        Action(String id, String title, String icon, boolean foreground) {
+            this.id = id;
+            this.title = title;
+            this.icon = icon;
+            this.foreground = foreground;
+        }
+    }
+
+    /**
+     * Parses the given FCM message.
+     * @param remoteMessage
+     * @param context used to resolve localization keys
+     * @return
+     */
+    public static NotificationSpec fromRemoteMessage(RemoteMessage remoteMessage, Context context) {
+        return new NotificationSpec(remoteMessage.getNotification(), remoteMessage.getMessageId(), remoteMessage.getData(),
+                remoteMessage.getFrom(), remoteMessage.getCollapseKey(), remoteMessage.getSentTime(), remoteMessage.getTtl(),
+                remoteMessage.getOriginalPriority() == RemoteMessage.PRIORITY_HIGH, context);
+    }
+
+    /**
+     * Creates the spec of a notification scheduled via {@link FirebasePluginScheduledNotifications}.
+     * The notification is described by the same data keys as a data message (notification_title etc.) and is
+     * always displayed, also while the app is in the foreground.
+     * @param messageId unique ID of this occurrence of the scheduled notification
+     * @param data
+     * @param scheduledTime time the notification was scheduled for, reported as its sent time
+     * @param context
+     * @return
+     */
+    public static NotificationSpec fromScheduledNotification(String messageId, Map<String, String> data, long scheduledTime, Context context) {
+        Map<String, String> scheduledData = new HashMap<String, String>(data);
+        scheduledData.put("notification_foreground", "true");
+        return new NotificationSpec(null, messageId, scheduledData, null, null, scheduledTime, 0, false, context);
+    }
+
+    private NotificationSpec(RemoteMessage.Notification notification, String messageId, Map<String, String> data,
+                             String from, String collapseKey, long sentTime, int ttl, boolean highPriority, Context context) {
+        String id = null, title = null, body = null, bodyHtml = null, tag = null, sound = null, vibrate = null,
+                light = null, color = null, icon = null, channelId = null, visibility = null, priority = null,
+                image = null, imageType = null, actions = null, progress = null, progressMax = null;
+        boolean foregroundNotification = false, update = false, progressIndeterminate = false, ongoing = false;
+
+        if (notification != null) {
+            // Notification message payload
+            this.messageType = MESSAGE_TYPE_NOTIFICATION;
+            id = messageId;
+            title = notification.getTitle();
+            body = notification.getBody();
+            tag = notification.getTag();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                channelId = notification.getChannelId();
+            }
+            sound = notification.getSound();
+            color = notification.getColor();
+            icon = notification.getIcon();
+            if (notification.getImageUrl() != null) {
+                image = notification.getImageUrl().toString();
+            }
+            String titleLocKey = notification.getTitleLocalizationKey();
+            if (!TextUtils.isEmpty(titleLocKey)) {
+                int titleId = FirebasePluginResources.getIdentifier(context, titleLocKey, FirebasePluginResources.TYPE_STRING);
+                title = String.format(context.getResources().getString(titleId), (Object[]) notification.getTitleLocalizationArgs());
+            }
+            String bodyLocKey = notification.getBodyLocalizationKey();
+            if (!TextUtils.isEmpty(bodyLocKey)) {
+                int bodyId = FirebasePluginResources.getIdentifier(context, bodyLocKey, FirebasePluginResources.TYPE_STRING);
+                body = String.format(context.getResources().getString(bodyId), (Object[]) notification.getBodyLocalizationArgs());
+            }
+        } else {
+            this.messageType = MESSAGE_TYPE_DATA;
+        }
+
+        if (data == null) {
+            data = Collections.emptyMap();
+        }
+        // Data message payload
+        for (Map.Entry<String, String> entry : data.entrySet()) {
+            String value = entry.getValue();
+            switch (entry.getKey()) {
+                case "notification_foreground": foregroundNotification = true; break;
+                case "notification_title": title = value; break;
+                case "notification_body": body = value; break;
+                case "notification_tag": tag = value; break;
+                case "notification_android_body_html": bodyHtml = value; break;
+                case "notification_android_channel_id": channelId = value; break;
+                case "notification_android_id": id = value; break;
+                case "notification_android_sound": sound = value; break;
+                case "notification_android_vibrate": vibrate = value; break;
+                case "notification_android_light": light = value; break; //String containing hex ARGB color, miliseconds on, miliseconds off, example: '#FFFF00FF,1000,3000'
+                case "notification_android_color": color = value; break;
+                case "notification_android_icon": icon = value; break;
+                case "notification_android_visibility": visibility = value; break;
+                case "notification_android_priority": priority = value; break;
+                case "notification_android_image": image = value; break;
+                case "notification_android_image_type": imageType = value; break;
+                case "notification_android_actions": actions = value; break;
+                case "notification_android_update": update = "true".equals(value); break;
+                case "notification_android_progress": progress = value; break;
+                case "notification_android_progress_max": progressMax = value; break;
+                case "notification_android_progress_indeterminate": progressIndeterminate = "true".equals(value); break;
+                case "notification_android_ongoing": ongoing = "true".equals(value); break;
+            }
+        }
+
+        if (TextUtils.isEmpty(tag)) {
+            // Make sure we don't accidentally pass an empty tag ""
+            // Otherwise we might override notifications the user did not mean to override
+            tag = null;
+        }
+        if (!TextUtils.isEmpty(tag)) {
+            // Override the unique FCM ID with an ID based on the tag if given
+            // => any previous notification with the same tag gets the same ID and will get updated
+            id = tag;
+        }
+        if (TextUtils.isEmpty(id)) {
+            Random rand = new Random();
+            int n = rand.nextInt(50) + 1;
+            id = Integer.toString(n);
+        }
+
+        this.id = id;
+        this.title = title;
+        this.body = body;
+        this.bodyHtml = bodyHtml;
+        this.tag = tag;
+        this.sound = sound;
+        this.vibrate = vibrate;
+        this.light = light;
+        this.color = color;
+        this.icon = icon;
+        this.channelId = channelId;
+        this.visibility = visibility;
+        this.priority = priority;
+        this.image = image;
+        this.imageType = imageType;
+        this.foregroundNotification = foregroundNotification;
+        this.messageId = messageId;
+        this.from = from;
+        this.collapseKey = collapseKey;
+        this.sentTime = sentTime;
+        this.ttl = ttl;
+        this.highPriority = highPriority;
+        this.data = data;
+
+        this.vibratePattern = parseVibratePattern(vibrate);
+        this.lightSettings = parseLightSettings(light);
+        this.actions = parseActions(actions);
+        this.update = update;
+        this.progress = parseInt(progress, -1);
+        this.progressMax = parseInt(progressMax, 100);
+        this.progressIndeterminate = progressIndeterminate;
+        this.ongoing = ongoing;
+        this.colorArgb = parseColor(color);
+        this.visibilityValue = parseInt(visibility, NotificationCompat.VISIBILITY_PUBLIC);
+        this.priorityValue = parseInt(priority, NotificationCompat.PRIORITY_MAX);
+
+        boolean hasContent = !TextUtils.isEmpty(body) || !TextUtils.isEmpty(title);
+        this.showNotification = (FirebasePlugin.inBackground() || !FirebasePlugin.hasNotificationsCallback() || foregroundNotification) && hasContent;
+    }
+
+    /**
+     * Whether the given message bundle belongs to the high priority lane.
+     */
+    public static boolean isHighPriority(Bundle bundle) {
+        return PRIORITY_HIGH.equals(bundle.getString(PRIORITY_KEY));
+    }
+
+    /**
+     * Whether there is anything to display or deliver.
+     */
+    public boolean hasContent() {
+        return !TextUtils.isEmpty(body) || !TextUtils.isEmpty(title) || !data.isEmpty();
+    }
+
+    /**
+     * Returns the message bundle passed to registered receivers and the JS layer.
+     * Built on first access; data keys take precedence over the derived keys.
+     * @return
+     */
+    public synchronized Bundle toBundle() {
+        if (bundle != null) return bundle;
+
+        Bundle b = new Bundle();
+        for (Map.Entry<String, String> entry : data.entrySet()) {
+            b.putString(entry.getKey(), entry.getValue());
+        }
+        b.putString("messageType", messageType);
+        putIfAbsent(b, "id", id);
+        putIfAbsent(b, "title", title);
+        putIfAbsent(b, "body", body);
+        putIfAbsent(b, "body_html", bodyHtml);
+        putIfAbsent(b, "tag", tag);
+        putIfAbsent(b, "sound", sound);
+        putIfAbsent(b, "vibrate", vibrate);
+        putIfAbsent(b, "light", light);
+        putIfAbsent(b, "color", color);
+        putIfAbsent(b, "icon", icon);
+        putIfAbsent(b, "channel_id", channelId);
+        putIfAbsent(b, "priority", priority);
+        putIfAbsent(b, "visibility", visibility);
+        putIfAbsent(b, "image", image);
+        putIfAbsent(b, "image_type", imageType);
+        putIfAbsent(b, "show_notification", String.valueOf(showNotification));
+        putIfAbsent(b, "google.message_id", messageId);
+        putIfAbsent(b, "from", from);
+        putIfAbsent(b, "collapse_key", collapseKey);
+        putIfAbsent(b, "sent_time", String.valueOf(sentTime));
+        putIfAbsent(b, "ttl", String.valueOf(ttl));
+        putIfAbsent(b, PRIORITY_KEY, highPriority ? PRIORITY_HIGH : PRIORITY_NORMAL);
+        bundle = b;
+        return bundle;
+    }
+
+    private static void putIfAbsent(Bundle b, String k, String v) {
+        if (v != null && !b.containsKey(k)) {
+            b.putString(k, v);
+        }
+    }
+
+    /*
+     * Parsing
+     */
+    private static List<Action> parseActions(String actions) {
+        if (TextUtils.isEmpty(actions)) return Collections.emptyList();
+        try {
+            JSONArray array = new JSONArray(actions);
+            List<Action> result = new ArrayList<Action>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject action = array.getJSONObject(i);
+                String id = action.optString("id", null);
+                if (TextUtils.isEmpty(id)) continue;
+                result.add(new Action(id, action.optString("title", id), action.optString("icon", null), action.optBoolean("foreground", false)));
+            }
+            return Collections.unmodifiableList(result);
+        } catch (JSONException e) {
+            FirebasePluginLog.w("Invalid notification_android_actions: " + actions, e);
+            return Collections.emptyList();
+        }
+    }
+
+    private static long[] parseVibratePattern(String vibrate) {
+        if (vibrate == null) return null;
+        try {
+            String[] sVibrations = vibrate.replaceAll("\\s", "").split(",");
+            long[] lVibrations = new long[sVibrations.length];
+            for (int i = 0; i < sVibrations.length; i++) {
+                lVibrations[i] = Long.parseLong(sVibrations[i]);
+            }
+            return lVibrations;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static int[] parseLightSettings(String light) {
+        if (light == null) return null;
+        try {
+            String[] lightsComponents = light.replaceAll("\\s", "").split(",");
+            if (lightsComponents.length == 3) {
+                return new int[]{
+                        Color.parseColor(lightsComponents[0]),
+                        Integer.parseInt(lightsComponents[1]),
+                        Integer.parseInt(lightsComponents[2])
+                };
+            }
+        } catch (IllegalArgumentException e) {
+            // also covers NumberFormatException
+        }
+        return null;
+    }
+
+    private static Integer parseColor(String color) {
+        if (color == null) return null;
+        try {
+            return Color.parseColor(color);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
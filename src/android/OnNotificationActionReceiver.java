@@ -0,0 +1,67 @@
+package org.apache.cordova.firebase;
+
+import android.app.NotificationManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+
+/**
+ * Handles the background action buttons declared by notification_android_actions without starting the app UI.
+ * <br/>
+ * The action is passed to the registered {@link FirebasePluginMessageReceiver}s first
+ * ({@link FirebasePluginMessageReceiver#onNotificationAction(String, Bundle, Context)}); if none handles it, the message
+ * is passed to the JS layer with the action ID in "action", or queued until the app is next opened.
+ */
+public class OnNotificationActionReceiver extends BroadcastReceiver {
+
+    /** Message bundle key of the ID of the chosen action, the same as for iOS actionable notifications */
+    public static final String ACTION_KEY = "action";
+
+    static final String EXTRA_NOTIFICATION_TAG = "firebasex_notification_tag";
+    static final String EXTRA_NOTIFICATION_ID = "firebasex_notification_id";
+
+    // Called on tapping a background action button
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        try{
+            FirebasePluginCore.initialize(context);
+
+            Bundle data = intent.getExtras();
+            if (data == null || !data.containsKey(ACTION_KEY)) return;
+
+            cancelNotification(context, data);
+
+            String actionId = data.getString(ACTION_KEY);
+            if(!data.containsKey("messageType")) data.putString("messageType", "notification");
+            data.putString("tap", FirebasePlugin.inBackground() ? "background" : "foreground");
+
+            FirebasePluginLog.v("OnNotificationActionReceiver.onReceive(): %s", data);
+
+            if (FirebasePluginMessageReceiverManager.onNotificationAction(actionId, data, context)) {
+                FirebasePluginLog.d("Notification action %s was handled by a registered receiver", actionId);
+                return;
+            }
+            FirebasePlugin.sendMessage(data, context);
+        }catch (Exception e){
+            FirebasePlugin.handleExceptionWithoutContext(e);
+        }
+    }
+
+    /**
+     * Dismisses the notification an action was chosen from, which unlike a tap on the notification itself
+     * doesn't dismiss it automatically. Does nothing if the given bundle isn't from an action.
+     * @param context
+     * @param data extras of the action intent; the notification reference is removed from it
+     */
+    static void cancelNotification(Context context, Bundle data) {
+        if (!data.containsKey(EXTRA_NOTIFICATION_ID)) return;
+        String notificationTag = data.getString(EXTRA_NOTIFICATION_TAG);
+        int notificationId = data.getInt(EXTRA_NOTIFICATION_ID);
+        data.remove(EXTRA_NOTIFICATION_TAG);
+        data.remove(EXTRA_NOTIFICATION_ID);
+        NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        notificationManager.cancel(notificationTag, notificationId);
+        FirebasePluginNotificationRenderer.invalidateActiveNotifications();
+    }
+}
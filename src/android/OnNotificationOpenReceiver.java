@@ -6,7 +6,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
-import android.util.Log;
 
 public class OnNotificationOpenReceiver extends BroadcastReceiver {
 
@@ -14,16 +13,18 @@ public class OnNotificationOpenReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
         try{
+            FirebasePluginLog.initialize(context);
             PackageManager pm = context.getPackageManager();
 
             Intent launchIntent = pm.getLaunchIntentForPackage(context.getPackageName());
             launchIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_NEW_TASK);
 
             Bundle data = intent.getExtras();
+            OnNotificationActionReceiver.cancelNotification(context, data);
             if(!data.containsKey("messageType")) data.putString("messageType", "notification");
             data.putString("tap", FirebasePlugin.inBackground() ? "background" : "foreground");
 
-            Log.d(FirebasePlugin.TAG, "OnNotificationOpenReceiver.onReceive(): "+data.toString());
+            FirebasePluginLog.v("OnNotificationOpenReceiver.onReceive(): %s", data);
 
             FirebasePlugin.sendMessage(data, context);
 
@@ -5,13 +5,12 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
-import android.util.Log;
 
 public class OnNotificationReceiverActivity extends Activity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        Log.d(FirebasePlugin.TAG, "OnNotificationReceiverActivity.onCreate()");
+        FirebasePluginLog.d("OnNotificationReceiverActivity.onCreate()");
         handleNotification(this, getIntent());
         finish();
     }
@@ -19,23 +18,25 @@ public class OnNotificationReceiverActivity extends Activity {
     @Override
     protected void onNewIntent(Intent intent) {
         super.onNewIntent(intent);
-        Log.d(FirebasePlugin.TAG, "OnNotificationReceiverActivity.onNewIntent()");
+        FirebasePluginLog.d("OnNotificationReceiverActivity.onNewIntent()");
         handleNotification(this, intent);
         finish();
     }
 
     private static void handleNotification(Context context, Intent intent) {
         try{
+            FirebasePluginLog.initialize(context);
             PackageManager pm = context.getPackageManager();
 
             Intent launchIntent = pm.getLaunchIntentForPackage(context.getPackageName());
             launchIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_NEW_TASK);
 
             Bundle data = intent.getExtras();
+            OnNotificationActionReceiver.cancelNotification(context, data);
             if(!data.containsKey("messageType")) data.putString("messageType", "notification");
             data.putString("tap", FirebasePlugin.inBackground() ? "background" : "foreground");
 
-            Log.d(FirebasePlugin.TAG, "OnNotificationReceiverActivity.handleNotification(): "+data.toString());
+            FirebasePluginLog.v("OnNotificationReceiverActivity.handleNotification(): %s", data);
 
             FirebasePlugin.sendMessage(data, context);
 
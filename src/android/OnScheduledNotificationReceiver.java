@@ -0,0 +1,51 @@
+package org.apache.cordova.firebase;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Displays notifications scheduled via {@link FirebasePluginScheduledNotifications} when their alarm fires,
+ * and re-creates the alarms after a reboot or app update.
+ * The broadcast is kept alive with {@link #goAsync()} until the notifications are actually posted.
+ */
+public class OnScheduledNotificationReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        // Kept alive until the renderer has passed the notification to the OS, after any rate limiting delay,
+        // else the process may be killed before then. Finished after at most 50s regardless.
+        final PendingResult pendingResult = goAsync();
+        final AtomicBoolean finished = new AtomicBoolean(false);
+        final Runnable finish = new Runnable() {
+            @Override
+            public void run() {
+                if (finished.compareAndSet(false, true)) {
+                    pendingResult.finish();
+                }
+            }
+        };
+        try{
+            FirebasePluginCore.initialize(context);
+
+            String action = intent.getAction();
+            if (FirebasePluginScheduledNotifications.ACTION_FIRE.equals(action)) {
+                String id = intent.getStringExtra(FirebasePluginScheduledNotifications.EXTRA_ID);
+                if (id != null) {
+                    FirebasePluginScheduledNotifications.getInstance(context).fire(id, finish);
+                } else {
+                    finish.run();
+                }
+            } else if (Intent.ACTION_BOOT_COMPLETED.equals(action) || Intent.ACTION_MY_PACKAGE_REPLACED.equals(action)) {
+                FirebasePluginScheduledNotifications.getInstance(context).restore(finish);
+            } else {
+                finish.run();
+            }
+        }catch (Exception e){
+            FirebasePlugin.handleExceptionWithoutContext(e);
+            finish.run();
+        }
+    }
+}
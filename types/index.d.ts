@@ -13,6 +13,51 @@ export interface IChannelOptions {
     streamType?: number
 }
 
+/**
+ * Message passed to onMessageReceived(): the FCM payload plus the keys below.
+ * All values are strings.
+ */
+export interface IMessage {
+    messageType: "notification" | "data"
+    tap?: "foreground" | "background"
+    /** (Android) FCM message ID, used to suppress repeated deliveries of the same message */
+    "google.message_id"?: string
+    /** (Android) priority the message was sent with */
+    "google.original_priority"?: "high" | "normal"
+    [key: string]: any
+}
+
+export interface IMessageReceivedOptions {
+    batch?: boolean
+    maxBatchBytes?: number
+    onBatch?: (messages: IMessage[]) => void
+}
+
+export interface IDiagnosticsLogEntry {
+    time: number
+    level: "debug" | "info" | "warn" | "error"
+    message: string
+}
+
+export interface ITopicResult {
+    status: "subscribed" | "unsubscribed" | "unchanged" | "failed"
+    error?: string
+}
+
+export interface IInboxMessage {
+    id: number
+    messageId: string | null
+    receivedAt: number
+    channelId: string | null
+    read: boolean
+    message: IMessage
+}
+
+export interface IInboxPage {
+    messages: IInboxMessage[]
+    hasMore: boolean
+}
+
 interface User {
     name: string;
     email: string;
@@ -45,8 +90,9 @@ export interface FirebasePlugin {
         error: (err: string) => void
     ): void
     onMessageReceived(
-        success: (value: object) => void,
-        error: (err: string) => void
+        success: (value: IMessage) => void,
+        error: (err: string) => void,
+        options?: IMessageReceivedOptions
     ): void
     onOpenSettings(
         success: () => void,
@@ -88,6 +134,21 @@ export interface FirebasePlugin {
         success?: () => void,
         error?: (err: string) => void
     ): void
+    setTopics(
+        topics: string[],
+        success?: (results: { [topic: string]: ITopicResult }) => void,
+        error?: (err: string) => void
+    ): void
+    subscribeMany(
+        topics: string[],
+        success?: (results: { [topic: string]: ITopicResult }) => void,
+        error?: (err: string) => void
+    ): void
+    unsubscribeMany(
+        topics: string[],
+        success?: (results: { [topic: string]: ITopicResult }) => void,
+        error?: (err: string) => void
+    ): void
     isAutoInitEnabled(
         success: (enabled: boolean) => void,
         error?: (err: string) => void
@@ -116,6 +177,16 @@ export interface FirebasePlugin {
         success: (list: { id: string; name: string }[]) => void,
         error: (err: string) => void
     ): void
+    scheduleNotification(
+        options: { id: string, at: number, title?: string, body?: string, data?: { [key: string]: string } },
+        success?: () => void,
+        error?: (err: string) => void
+    ): void
+    cancelScheduledNotification(
+        id: string,
+        success?: (cancelled: boolean) => void,
+        error?: (err: string) => void
+    ): void
     setAnalyticsCollectionEnabled(
         setEnabled: boolean
     ): void
@@ -511,6 +582,29 @@ export interface FirebasePlugin {
     registerApplicationDidEnterBackgroundListener(
         fn: () => void,
     ): void
+    getDiagnosticsLog(
+        success: (entries: IDiagnosticsLogEntry[]) => void,
+        error: (err: string) => void
+    ): void
+    getMessagingStats(
+        success: (stats: object) => void,
+        error: (err: string) => void
+    ): void
+    getInboxMessages(
+        options: { since?: number, beforeId?: number, channel?: string, limit?: number },
+        success: (page: IInboxPage) => void,
+        error: (err: string) => void
+    ): void
+    markInboxMessagesRead(
+        ids: number[],
+        success: (updated: number) => void,
+        error: (err: string) => void
+    ): void
+    purgeInboxMessages(
+        options: { receivedBefore?: number, readOnly?: boolean },
+        success: (deleted: number) => void,
+        error: (err: string) => void
+    ): void
 }
 
 declare global {
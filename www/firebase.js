@@ -71,8 +71,30 @@ exports.getAPNSToken = function (success, error) {
   exec(success, error, "FirebasePlugin", "getAPNSToken", []);
 };
 
-exports.onMessageReceived = function (success, error) {
-  exec(success, error, "FirebasePlugin", "onMessageReceived", []);
+exports.onMessageReceived = function (success, error, options) {
+  var handler = success, args = [];
+  if(options && options.batch){
+    // Android-only: queued messages are delivered as arrays
+    var onBatch = options.onBatch;
+    handler = function(result){
+      if(Array.isArray(result)){
+        if(typeof onBatch === 'function'){
+          onBatch(result);
+        }else{
+          result.forEach(function(message){
+            success(message);
+          });
+        }
+      }else{
+        success(result);
+      }
+    };
+    args.push({
+      batch: true,
+      maxBatchBytes: options.maxBatchBytes
+    });
+  }
+  exec(handler, error, "FirebasePlugin", "onMessageReceived", args);
 };
 
 exports.onTokenRefresh = function (success, error) {
@@ -91,6 +113,18 @@ exports.unsubscribe = function (topic, success, error) {
   exec(success, error, "FirebasePlugin", "unsubscribe", [topic]);
 };
 
+exports.setTopics = function (topics, success, error) {
+  exec(success, error, "FirebasePlugin", "setTopics", [topics]);
+};
+
+exports.subscribeMany = function (topics, success, error) {
+  exec(success, error, "FirebasePlugin", "subscribeMany", [topics]);
+};
+
+exports.unsubscribeMany = function (topics, success, error) {
+  exec(success, error, "FirebasePlugin", "unsubscribeMany", [topics]);
+};
+
 exports.unregister = function (success, error) {
   exec(success, error, "FirebasePlugin", "unregister", []);
 };
@@ -149,6 +183,14 @@ exports.listChannels = function (success, error) {
     exec(success, error, "FirebasePlugin", "listChannels", []);
 };
 
+exports.scheduleNotification = function (options, success, error) {
+    exec(success, error, "FirebasePlugin", "scheduleNotification", [options]);
+};
+
+exports.cancelScheduledNotification = function (id, success, error) {
+    exec(success, error, "FirebasePlugin", "cancelScheduledNotification", [id]);
+};
+
 // Analytics
 exports.setAnalyticsCollectionEnabled = function (enabled, success, error) {
     exec(success, error, "FirebasePlugin", "setAnalyticsCollectionEnabled", [!!enabled]);
@@ -615,3 +657,24 @@ exports.registerApplicationDidEnterBackgroundListener = function(fn){
     if(typeof fn !== "function") throw "The specified argument must be a function";
     onApplicationDidEnterBackgroundCallback = fn;
 };
+
+// Diagnostics
+exports.getDiagnosticsLog = function (success, error) {
+    exec(success, error, "FirebasePlugin", "getDiagnosticsLog", []);
+};
+
+exports.getMessagingStats = function (success, error) {
+    exec(success, error, "FirebasePlugin", "getMessagingStats", []);
+};
+
+exports.getInboxMessages = function (options, success, error) {
+    exec(success, error, "FirebasePlugin", "getInboxMessages", [options || {}]);
+};
+
+exports.markInboxMessagesRead = function (ids, success, error) {
+    exec(success, error, "FirebasePlugin", "markInboxMessagesRead", [ids]);
+};
+
+exports.purgeInboxMessages = function (options, success, error) {
+    exec(success, error, "FirebasePlugin", "purgeInboxMessages", [options || {}]);
+};